@@ -0,0 +1,81 @@
+package libraryManagement4;
+
+import java.lang.ref.Reference;
+import java.util.Random;
+
+// Heap taken by a synthetic catalog's Book objects with author, category and
+// publisher as separate strings per book (as parsed on import) against the
+// interned dictionary ids Book uses now.
+//
+// Usage: java libraryManagement4.BookMetadataHeapReport [books] [authors] [categories] [publishers]
+public class BookMetadataHeapReport {
+    // Book's former layout: one String per field per book
+    private static final class PlainBook {
+        final String isbn;
+        final String title;
+        final String author;
+        final String category;
+        final String publisher;
+        final int publicationYear;
+
+        PlainBook(String isbn, String title, String author, String category, String publisher, int year) {
+            this.isbn = isbn;
+            this.title = title;
+            this.author = author;
+            this.category = category;
+            this.publisher = publisher;
+            this.publicationYear = year;
+        }
+    }
+
+    public static void main(String[] args) {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int authors = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int categories = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        int publishers = args.length > 3 ? Integer.parseInt(args[3]) : 5_000;
+
+        long base = usedHeap();
+        Object[] plain = new Object[books];
+        Random random = new Random(42);
+        for (int i = 0; i < books; i++) {
+            plain[i] = new PlainBook("978-" + i, "Title " + i, copy("Author " + random.nextInt(authors)),
+                    copy("Category " + random.nextInt(categories)), copy("Publisher " + random.nextInt(publishers)),
+                    1950 + random.nextInt(75));
+        }
+        long separate = usedHeap() - base;
+        Reference.reachabilityFence(plain);
+        plain = null;
+
+        base = usedHeap();
+        Object[] interned = new Object[books];
+        random = new Random(42);
+        for (int i = 0; i < books; i++) {
+            Book book = BookFactory.createBook("978-" + i, "Title " + i, copy("Author " + random.nextInt(authors)),
+                    copy("Category " + random.nextInt(categories)));
+            book.setPublisher(copy("Publisher " + random.nextInt(publishers)));
+            book.setPublicationYear(1950 + random.nextInt(75));
+            interned[i] = book;
+        }
+        long shared = usedHeap() - base;
+        Reference.reachabilityFence(interned);
+
+        System.out.printf("📚 %,d books, %,d authors, %,d categories, %,d publishers%n",
+                books, Book.AUTHORS.size(), Book.CATEGORIES.size(), Book.PUBLISHERS.size());
+        System.out.printf("Separate strings: %,d MB (%d bytes/book)%n", separate >> 20, separate / books);
+        System.out.printf("Interned ids:     %,d MB (%d bytes/book, dictionaries included)%n",
+                shared >> 20, shared / books);
+    }
+
+    // A distinct String object, as a parser produces for every field it reads
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
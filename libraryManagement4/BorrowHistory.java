@@ -0,0 +1,82 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+// Append-only lifetime borrow log of one user (the hot tier; old completed
+// loans can be moved out to a ColdHistoryStore).
+// Records live in fixed-size chunks, so growth never copies old records, and
+// readers see a prefix bounded by the published size without locking.
+class BorrowHistory {
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Chunks plus published size. Appends fill it in place; removal builds a
+    // new one and swaps it in whole, so a reader never pairs one log's size
+    // with another's chunks.
+    private static final class Log {
+        BorrowRecord[][] chunks = new BorrowRecord[1][];
+        volatile int size;
+    }
+
+    private volatile Log log = new Log();
+
+    public synchronized void append(BorrowRecord record) {
+        append(log, record);
+    }
+
+    // Drops the given records, keeping the order of the rest; returns how many went
+    public synchronized int removeAll(Set<BorrowRecord> records) {
+        Log rebuilt = new Log();
+        for (BorrowRecord record : toList()) {
+            if (!records.contains(record)) {
+                append(rebuilt, record);
+            }
+        }
+        int removed = log.size - rebuilt.size;
+        if (removed > 0) {
+            log = rebuilt;
+        }
+        return removed;
+    }
+
+    private static void append(Log log, BorrowRecord record) {
+        int size = log.size;
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == log.chunks.length) {
+            log.chunks = Arrays.copyOf(log.chunks, log.chunks.length * 2);
+        }
+        if (log.chunks[chunk] == null) {
+            log.chunks[chunk] = new BorrowRecord[CHUNK_SIZE];
+        }
+        log.chunks[chunk][size & (CHUNK_SIZE - 1)] = record;
+        log.size = size + 1; // publishes the record to readers
+    }
+
+    public int size() {
+        return log.size;
+    }
+
+    public BorrowRecord get(int index) {
+        Log current = log;
+        int size = current.size;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return current.chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+    }
+
+    // Oldest first
+    public List<BorrowRecord> toList() {
+        Log current = log;
+        int n = current.size;
+        BorrowRecord[][] snapshot = current.chunks;
+        List<BorrowRecord> records = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            records.add(snapshot[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)]);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,495 @@
+package libraryManagement4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+enum CatalogFormat {
+    // isbn,title,author,category,rack[,barcode] with RFC 4180 quoting, one
+    // record per line: the dump is split and parsed at line breaks, so fields
+    // cannot contain them. A quote left open at the end of a line, or a quote
+    // inside an unquoted field, rejects the line, so both halves of a record
+    // broken by a quoted newline are dropped rather than misread. An optional
+    // header line starting with "isbn" is skipped
+    CSV,
+    // One flat object per line with the same keys as the CSV columns
+    JSON_LINES;
+
+    static CatalogFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".json") ? JSON_LINES : CSV;
+    }
+}
+
+class ImportResult {
+    private final int items;
+    private final int books;
+    private final int rejectedLines;
+    private final long millis;
+
+    ImportResult(int items, int books, int rejectedLines, long millis) {
+        this.items = items;
+        this.books = books;
+        this.rejectedLines = rejectedLines;
+        this.millis = millis;
+    }
+
+    public int getItems() {
+        return items;
+    }
+
+    public int getBooks() {
+        return books;
+    }
+
+    public int getRejectedLines() {
+        return rejectedLines;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return items + " items of " + books + " titles in " + millis + " ms (" + rejectedLines + " lines rejected)";
+    }
+}
+
+// Bulk catalog import. The dump is memory-mapped, cut into chunks at line
+// boundaries and parsed on a thread pool straight from the mapping; copies of
+// one ISBN share a single Book. The parsed items go to the repository as one
+// batch, so every attached index is built in one pass under one lock.
+//
+// Usage: java libraryManagement4.CatalogImporter <file> [threads]
+//        java libraryManagement4.CatalogImporter generate <file> <items>
+class CatalogImporter {
+    // A mapping can't exceed 2 GiB; chunks stay well below that
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+
+    private final int threads;
+
+    public CatalogImporter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CatalogImporter(int threads) {
+        this.threads = threads;
+    }
+
+    public ImportResult importFile(Path file, LibraryRepository repository) throws IOException {
+        return importFile(file, CatalogFormat.of(file), repository);
+    }
+
+    public ImportResult importFile(Path file, CatalogFormat format, LibraryRepository repository) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Book> books = new ConcurrentHashMap<>();
+        List<ChunkParser> parsers = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long[] range : split(channel)) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+                parsers.add(new ChunkParser(chunk, format, books));
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<Void> done : pool.invokeAll(parsers)) {
+                    done.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Import failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        // Chunks in file order, so catalog ids follow the dump
+        int total = 0;
+        int rejected = 0;
+        for (ChunkParser parser : parsers) {
+            total += parser.items.size();
+            rejected += parser.rejected;
+        }
+        List<BookItem> items = new ArrayList<>(total);
+        for (ChunkParser parser : parsers) {
+            items.addAll(parser.items);
+        }
+        repository.addBookItems(items);
+        return new ImportResult(total, books.size(), rejected, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // [start, end) byte ranges ending just after a newline (or at EOF)
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int wanted = (int) Math.max(threads * 4L, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        long target = Math.max(1, size / wanted);
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + target);
+            end = end < size ? nextLineStart(channel, end, size) : size;
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        long window = 64 * 1024;
+        for (long position = from; position < size; position += window) {
+            MappedByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(window, size - position));
+            for (int i = 0; i < probe.limit(); i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    // Parses one chunk of whole lines straight from the mapping
+    private static final class ChunkParser implements Callable<Void> {
+        private static final String[] COLUMNS = { "isbn", "title", "author", "category", "rack", "barcode" };
+
+        private final MappedByteBuffer chunk;
+        private final CatalogFormat format;
+        private final Map<String, Book> books;
+        final List<BookItem> items = new ArrayList<>();
+        int rejected;
+        private byte[] line = new byte[256];
+        private byte[] field = new byte[256];
+        private final String[] values = new String[COLUMNS.length];
+        // Position just after the closing quote of the last readJsonString
+        private int jsonEnd;
+
+        ChunkParser(MappedByteBuffer chunk, CatalogFormat format, Map<String, Book> books) {
+            this.chunk = chunk;
+            this.format = format;
+            this.books = books;
+        }
+
+        @Override
+        public Void call() {
+            int limit = chunk.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && chunk.get(end) != '\n') {
+                    end++;
+                }
+                int length = end - start;
+                if (length > 0 && chunk.get(end - 1) == '\r') {
+                    length--;
+                }
+                if (length > 0) {
+                    if (length > line.length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    chunk.get(start, line, 0, length);
+                    parseLine(length);
+                }
+                start = end + 1;
+            }
+            return null;
+        }
+
+        private void parseLine(int length) {
+            Arrays.fill(values, null);
+            boolean parsed;
+            try {
+                parsed = format == CatalogFormat.CSV ? parseCsv(length) : parseJson(length);
+            } catch (NumberFormatException e) {
+                parsed = false; // bad unicode escape
+            }
+            if (parsed && format == CatalogFormat.CSV && "isbn".equalsIgnoreCase(values[0])) {
+                return; // header
+            }
+            if (!parsed || values[0] == null || values[0].isEmpty()) {
+                rejected++;
+                return;
+            }
+            Book book = books.get(values[0]);
+            if (book == null) {
+                Book created = BookFactory.createBook(values[0], values[1], values[2], values[3]);
+                book = books.putIfAbsent(values[0], created);
+                if (book == null) {
+                    book = created;
+                }
+            }
+            items.add(values[5] != null && !values[5].isEmpty()
+                    ? new BookItem(values[5], book, values[4])
+                    : BookItemFactory.createBookItem(book, values[4]));
+        }
+
+        private boolean parseCsv(int length) {
+            int column = 0;
+            int i = 0;
+            while (i <= length && column < COLUMNS.length) {
+                int n = 0;
+                if (i < length && line[i] == '"') {
+                    i++;
+                    boolean closed = false;
+                    while (i < length) {
+                        if (line[i] == '"') {
+                            if (i + 1 < length && line[i + 1] == '"') {
+                                n = put(n, line[i]);
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            closed = true;
+                            break;
+                        }
+                        n = put(n, line[i++]);
+                    }
+                    if (!closed) {
+                        return false; // field runs past the end of the line
+                    }
+                } else {
+                    while (i < length && line[i] != ',') {
+                        if (line[i] == '"') {
+                            return false; // bare quote, e.g. the tail of a broken quoted field
+                        }
+                        n = put(n, line[i++]);
+                    }
+                }
+                values[column++] = new String(field, 0, n, StandardCharsets.UTF_8);
+                if (i < length && line[i] != ',') {
+                    return false; // junk after a closing quote
+                }
+                i++;
+            }
+            return column >= 5;
+        }
+
+        // Flat objects only: string values (with escapes) and bare numbers
+        private boolean parseJson(int length) {
+            int i = skipSpace(0, length);
+            if (i >= length || line[i] != '{') {
+                return false;
+            }
+            i++;
+            while (true) {
+                i = skipSpace(i, length);
+                if (i < length && line[i] == '}') {
+                    return true;
+                }
+                if (i >= length || line[i] != '"') {
+                    return false;
+                }
+                int keyLength = readJsonString(i + 1, length);
+                if (keyLength < 0) {
+                    return false;
+                }
+                String key = new String(field, 0, keyLength, StandardCharsets.UTF_8);
+                i = skipSpace(jsonEnd, length);
+                if (i >= length || line[i] != ':') {
+                    return false;
+                }
+                i = skipSpace(i + 1, length);
+                String value;
+                if (i < length && line[i] == '"') {
+                    int n = readJsonString(i + 1, length);
+                    if (n < 0) {
+                        return false;
+                    }
+                    value = new String(field, 0, n, StandardCharsets.UTF_8);
+                    i = jsonEnd;
+                } else {
+                    int from = i;
+                    while (i < length && line[i] != ',' && line[i] != '}' && line[i] != ' ') {
+                        i++;
+                    }
+                    value = new String(line, from, i - from, StandardCharsets.UTF_8);
+                    if ("null".equals(value)) {
+                        value = null;
+                    }
+                }
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    if (COLUMNS[c].equals(key)) {
+                        values[c] = value;
+                    }
+                }
+                i = skipSpace(i, length);
+                if (i < length && line[i] == ',') {
+                    i++;
+                } else if (i >= length || line[i] != '}') {
+                    return false;
+                }
+            }
+        }
+
+        // Unescapes a JSON string starting after its opening quote into field;
+        // returns its byte length, or -1 if malformed
+        private int readJsonString(int i, int length) {
+            int n = 0;
+            while (i < length) {
+                byte b = line[i++];
+                if (b == '"') {
+                    jsonEnd = i;
+                    return n;
+                }
+                if (b != '\\') {
+                    n = put(n, b);
+                    continue;
+                }
+                if (i >= length) {
+                    return -1;
+                }
+                byte escaped = line[i++];
+                switch (escaped) {
+                    case 'n':
+                        n = put(n, (byte) '\n');
+                        break;
+                    case 't':
+                        n = put(n, (byte) '\t');
+                        break;
+                    case 'r':
+                        n = put(n, (byte) '\r');
+                        break;
+                    case 'b':
+                        n = put(n, (byte) '\b');
+                        break;
+                    case 'f':
+                        n = put(n, (byte) '\f');
+                        break;
+                    case 'u':
+                        if (i + 4 > length) {
+                            return -1;
+                        }
+                        int code = hex4(i);
+                        i += 4;
+                        // Characters outside the BMP come as a surrogate pair
+                        if (Character.isHighSurrogate((char) code) && i + 6 <= length
+                                && line[i] == '\\' && line[i + 1] == 'u') {
+                            int low = hex4(i + 2);
+                            if (Character.isLowSurrogate((char) low)) {
+                                code = Character.toCodePoint((char) code, (char) low);
+                                i += 6;
+                            }
+                        }
+                        if (code <= Character.MAX_VALUE && Character.isSurrogate((char) code)) {
+                            code = 0xFFFD; // unpaired: replacement character
+                        }
+                        n = putCodePoint(n, code);
+                        break;
+                    default:
+                        n = put(n, escaped); // \" \\ \/
+                }
+            }
+            return -1;
+        }
+
+        private int skipSpace(int i, int length) {
+            while (i < length && (line[i] == ' ' || line[i] == '\t')) {
+                i++;
+            }
+            return i;
+        }
+
+        // Appends to the field buffer, growing it for long fields
+        private int put(int n, byte b) {
+            if (n == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[n] = b;
+            return n + 1;
+        }
+
+        // Appends the UTF-8 encoding of a code point
+        private int putCodePoint(int n, int code) {
+            if (code < 0x80) {
+                return put(n, (byte) code);
+            }
+            if (code < 0x800) {
+                n = put(n, (byte) (0xC0 | code >> 6));
+            } else {
+                if (code < 0x10000) {
+                    n = put(n, (byte) (0xE0 | code >> 12));
+                } else {
+                    n = put(n, (byte) (0xF0 | code >> 18));
+                    n = put(n, (byte) (0x80 | (code >> 12 & 0x3F)));
+                }
+                n = put(n, (byte) (0x80 | (code >> 6 & 0x3F)));
+            }
+            return put(n, (byte) (0x80 | (code & 0x3F)));
+        }
+
+        // Four hex digits at i; NumberFormatException rejects the line
+        private int hex4(int i) {
+            int code = 0;
+            for (int k = i; k < i + 4; k++) {
+                int digit = Character.digit(line[k], 16);
+                if (digit < 0) {
+                    throw new NumberFormatException("Bad \\u escape");
+                }
+                code = code << 4 | digit;
+            }
+            return code;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("generate")) {
+            generate(Paths.get(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length < 1) {
+            System.out.println("Usage: CatalogImporter <file> [threads] | generate <file> <items>");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        InMemoryLibraryRepository repository = new InMemoryLibraryRepository();
+        long start = System.nanoTime();
+        // Indexes attached first, so the import builds them in the same pass
+        repository.addCatalogListener(new InvertedIndex());
+        repository.addCatalogListener(new TrigramIndex());
+        ImportResult result = new CatalogImporter(threads).importFile(file, repository);
+        System.out.println("📚 Imported " + result);
+        System.out.println("Including index build: " + (System.nanoTime() - start) / 1_000_000 + " ms, " +
+                repository.countItemsByStatus(BookStatus.AVAILABLE) + " available");
+    }
+
+    // Synthetic dump: three copies per title, a few hundred authors and categories
+    private static void generate(Path file, int items) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            boolean json = CatalogFormat.of(file) == CatalogFormat.JSON_LINES;
+            if (!json) {
+                out.write("isbn,title,author,category,rack\n");
+            }
+            for (int i = 0; i < items; i++) {
+                int title = i / 3;
+                String isbn = "978-" + title;
+                String name = "Title " + title + " Volume " + (title % 17);
+                String author = "Author " + (title % 997);
+                String category = "Category " + (title % 61);
+                String rack = "R-" + (i % 1000);
+                if (json) {
+                    out.write("{\"isbn\":\"" + isbn + "\",\"title\":\"" + name + "\",\"author\":\"" + author +
+                            "\",\"category\":\"" + category + "\",\"rack\":\"" + rack + "\"}\n");
+                } else {
+                    out.write(isbn + ",\"" + name + "\"," + author + "," + category + "," + rack + "\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package libraryManagement4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Checkout throughput (borrow + return pairs per second) by thread count,
+// for the lock-free path against the same calls behind one global lock.
+//
+// Usage: java libraryManagement4.CheckoutBenchmark [maxThreads] [copies] [seconds]
+public class CheckoutBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        System.out.println("threads   cas ops/s   global-lock ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // Warm-up run at this thread count, then the measured ones
+            run(new CheckoutFixture(copies, 1024), threads, 1, false);
+            long cas = run(new CheckoutFixture(copies, 1024), threads, seconds, false);
+            long locked = run(new CheckoutFixture(copies, 1024), threads, seconds, true);
+            System.out.printf("%7d %11d %19d%n", threads, cas / seconds, locked / seconds);
+        }
+    }
+
+    private static long run(CheckoutFixture fixture, int threads, int seconds, boolean globalLock)
+            throws InterruptedException {
+        LibraryService library = fixture.library;
+        LongAdder completed = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    String barcode = fixture.items[random.nextInt(fixture.items.length)].getBarcode();
+                    String userId = fixture.users[random.nextInt(fixture.users.length)].getId();
+                    if (globalLock) {
+                        synchronized (library) {
+                            checkout(library, barcode, userId, completed);
+                        }
+                    } else {
+                        checkout(library, barcode, userId, completed);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return completed.sum();
+    }
+
+    private static void checkout(LibraryService library, String barcode, String userId, LongAdder completed) {
+        try {
+            library.borrowBook(barcode, userId);
+        } catch (IllegalStateException e) {
+            return;
+        }
+        library.returnBook(barcode, userId);
+        completed.increment();
+    }
+}
@@ -0,0 +1,133 @@
+package libraryManagement4;
+
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Stress check for concurrent checkout: many threads borrow and return the
+// same few barcodes. A successful borrow must find the copy unheld in a shadow
+// table, and no user may ever exceed their borrow limit. Exits 1 on violation.
+//
+// Usage: java libraryManagement4.CheckoutHammer [threads] [copies] [users] [seconds]
+public class CheckoutHammer {
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        CheckoutFixture fixture = new CheckoutFixture(copies, userCount);
+        LibraryService library = fixture.library;
+        // Who holds each copy according to the borrowers themselves
+        AtomicReferenceArray<String> holders = new AtomicReferenceArray<>(copies);
+        AtomicLong borrows = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong violations = new AtomicLong();
+
+        PrintStream out = System.out;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    hammer(fixture, holders, deadline, borrows, rejected, violations, out);
+                } catch (RuntimeException e) {
+                    // A failed return means a loan was lost or duplicated
+                    violations.incrementAndGet();
+                    out.println("Unexpected " + e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        // Everything was returned, so every index must agree the shelf is full
+        LibraryRepository repo = fixture.repository;
+        int available = repo.countItemsByStatus(BookStatus.AVAILABLE);
+        TitleCopies title = repo.getTitleCopies(fixture.book.getIsbn());
+        List<BookItem> shelf = repo.getAvailableItems();
+        if (available != copies || shelf.size() != copies || title.getAvailableCount() != copies
+                || title.getBorrowedCount() != 0 || library.getOverdueBooks(LocalDate.MAX).size() != 0) {
+            violations.incrementAndGet();
+            out.println("Indexes disagree after the run: available=" + available + " shelf=" + shelf.size() +
+                    " titleAvailable=" + title.getAvailableCount() + " titleBorrowed=" + title.getBorrowedCount());
+        }
+        for (User user : fixture.users) {
+            if (user.getActiveBorrowCount() != 0 || !user.canBorrow()) {
+                violations.incrementAndGet();
+                out.println(user.getId() + " still holds loans or slots after the run");
+            }
+        }
+
+        System.out.println("Borrows: " + borrows.get() + ", rejected: " + rejected.get() +
+                ", violations: " + violations.get());
+        if (violations.get() > 0) {
+            System.exit(1);
+        }
+        System.out.println("✅ No double lending across " + threads + " threads");
+    }
+
+    private static void hammer(CheckoutFixture fixture, AtomicReferenceArray<String> holders, long deadline,
+            AtomicLong borrows, AtomicLong rejected, AtomicLong violations, PrintStream out) {
+        LibraryService library = fixture.library;
+        int copies = fixture.items.length;
+        int userCount = fixture.users.length;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            int copy = random.nextInt(copies);
+            User user = fixture.users[random.nextInt(userCount)];
+            String barcode = fixture.items[copy].getBarcode();
+            try {
+                library.borrowBook(barcode, user.getId());
+            } catch (IllegalStateException e) {
+                rejected.incrementAndGet();
+                continue;
+            }
+            borrows.incrementAndGet();
+            if (!holders.compareAndSet(copy, null, user.getId())) {
+                violations.incrementAndGet();
+                out.println("Double lending of " + barcode + ": held by " + holders.get(copy) +
+                        ", also lent to " + user.getId());
+            }
+            if (user.getActiveBorrowCount() > user.getMaxBorrowLimit()) {
+                violations.incrementAndGet();
+                out.println(user.getId() + " exceeded the borrow limit");
+            }
+            if (random.nextInt(4) != 0) {
+                Thread.onSpinWait();
+            }
+            // Clear before returning: the copy stays BORROWED until returnBook shelves it
+            holders.set(copy, null);
+            library.returnBook(barcode, user.getId());
+        }
+    }
+}
+
+// One title with many copies and a pool of users, shared by the checkout tools
+class CheckoutFixture {
+    final InMemoryLibraryRepository repository = new InMemoryLibraryRepository();
+    final LibraryService library;
+    final Book book = BookFactory.createBook("978-0-13-468599-1", "Clean Code", "Robert Martin", "Programming");
+    final BookItem[] items;
+    final User[] users;
+
+    CheckoutFixture(int copies, int userCount) {
+        library = new LibraryService(repository, new InMemoryUserRepository(), new StandardFineCalculator());
+        library.setConsoleMessages(false);
+        items = new BookItem[copies];
+        for (int i = 0; i < copies; i++) {
+            items[i] = BookItemFactory.createBookItem(book, "R-" + i);
+            library.addBookItem(items[i]);
+        }
+        users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = new User("U" + i, "User " + i, "u" + i + "@example.com", MembershipType.PUBLIC);
+            library.addUser(users[i]);
+        }
+    }
+}
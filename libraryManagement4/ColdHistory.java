@@ -0,0 +1,627 @@
+package libraryManagement4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Cold tier of borrow history: completed loans archived to disk, compressed
+// and column by column, so years of history cost no heap.
+//
+// Each archive run writes one immutable segment file, history-<n>.seg:
+//   [magic][version][highest record id sequence, or -1][first segment
+//   number covered] then blocks of up to BLOCK_ROWS rows sorted by user id.
+//   Block header: [rows][raw length][deflated length][first user][last user]
+//   Block payload (deflated): columns one after another:
+//     users        distinct ids with their run lengths (rows are sorted by user)
+//     record ids   UTF strings
+//     barcodes     per-block dictionary, then one varint index per row
+//     borrow day   zigzag varint delta from the previous row
+//     due, return  varint days after the borrow day
+//     fine         varint paise
+// Similar values sit together, which is what makes them compress well.
+// Only block headers are kept in memory, and files are opened only to read
+// blocks; reading a user's history inflates just the blocks whose user range
+// covers them, found by binary search in each segment. Opening the store
+// reports the highest archived record id to CompactIdSequence.RECORD_IDS, so
+// open it before lending: new loans never reuse an id only the cold tier holds.
+//
+// Segments merge like a binary counter: after a run, while the newest segment
+// has at least as many rows as the one before it, the two are merged into a
+// new segment covering both. Nightly runs thus leave O(log n) segments and
+// each row is rewritten O(log n) times. A merged segment names the first
+// segment it covers, so sources left behind by a crash are deleted on open.
+class ColdHistoryStore implements Closeable {
+    static final int BLOCK_ROWS = 1024;
+    private static final int MAGIC = 0x4C49_4243; // "LIBC"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 16;
+
+    // One archived loan as stored
+    private static final class Row {
+        final String userId;
+        final String recordId;
+        final String barcode;
+        final long borrowDay;
+        final long dueDay;
+        final long returnDay;
+        final long finePaise;
+
+        Row(String userId, String recordId, String barcode, long borrowDay, long dueDay, long returnDay,
+                long finePaise) {
+            this.userId = userId;
+            this.recordId = recordId;
+            this.barcode = barcode;
+            this.borrowDay = borrowDay;
+            this.dueDay = dueDay;
+            this.returnDay = returnDay;
+            this.finePaise = finePaise;
+        }
+
+        static Row of(BorrowRecord record) {
+            return new Row(record.getUser().getId(), record.getId(), record.getBookItem().getBarcode(),
+                    record.getBorrowDate().toEpochDay(), record.getDueDate().toEpochDay(),
+                    record.getReturnDate().toEpochDay(), FineLedger.toPaise(record.getFine()));
+        }
+    }
+
+    private static final class Block {
+        final long offset;
+        final int rows;
+        final int rawLength;
+        final int deflatedLength;
+        final String firstUser;
+        final String lastUser;
+
+        Block(long offset, int rows, int rawLength, int deflatedLength, String firstUser, String lastUser) {
+            this.offset = offset;
+            this.rows = rows;
+            this.rawLength = rawLength;
+            this.deflatedLength = deflatedLength;
+            this.firstUser = firstUser;
+            this.lastUser = lastUser;
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        final int number;
+        final int firstCovered;
+        final int highestRecord;
+        final List<Block> blocks;
+        final long rows;
+
+        Segment(Path path, int number, int firstCovered, int highestRecord, List<Block> blocks) {
+            this.path = path;
+            this.number = number;
+            this.firstCovered = firstCovered;
+            this.highestRecord = highestRecord;
+            this.blocks = blocks;
+            long total = 0;
+            for (Block block : blocks) {
+                total += block.rows;
+            }
+            this.rows = total;
+        }
+
+        // Blocks whose user range covers userId; blocks are in user order
+        List<Block> blocksFor(String userId) {
+            int low = 0;
+            int high = blocks.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (blocks.get(mid).lastUser.compareTo(userId) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int end = low;
+            while (end < blocks.size() && blocks.get(end).firstUser.compareTo(userId) <= 0) {
+                end++;
+            }
+            return blocks.subList(low, end);
+        }
+    }
+
+    private final Path directory;
+    private final List<Segment> segments = new ArrayList<>();
+    // Reads hold it shared; a merge holds it exclusively to retire its sources
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int nextSegment;
+
+    public ColdHistoryStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "history-*")) {
+            for (Path file : stream) {
+                if (file.toString().endsWith(".tmp")) {
+                    Files.delete(file); // an archive run or merge that never finished
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(Path::toString));
+        for (Path file : files) {
+            Segment segment = open(file);
+            // Sources of a merge that crashed before deleting them
+            while (!segments.isEmpty() && segments.get(segments.size() - 1).number >= segment.firstCovered) {
+                Files.delete(segments.remove(segments.size() - 1).path);
+            }
+            segments.add(segment);
+            CompactIdSequence.RECORD_IDS.observe(segment.highestRecord);
+            nextSegment = Math.max(nextSegment, segment.number + 1);
+        }
+    }
+
+    // Writes the records as a new segment, durably, before returning; then
+    // merges segments as described above
+    public synchronized void archive(List<BorrowRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Row> rows = new ArrayList<>(records.size());
+        int highest = -1;
+        for (BorrowRecord record : records) {
+            rows.add(Row.of(record));
+            highest = Math.max(highest, CompactIdSequence.RECORD_IDS.parse(record.getId()));
+        }
+        // Stable: each user's records keep their history order
+        rows.sort(Comparator.comparing(row -> row.userId));
+        Segment segment = write(rows.iterator(), nextSegment, nextSegment, highest);
+        nextSegment++;
+        lock.writeLock().lock();
+        try {
+            segments.add(segment);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        mergeTail();
+    }
+
+    // The user's archived loans, oldest first. Only blocks covering the user
+    // are read, all of them when called, so a merge cannot retire a segment
+    // halfway through. Copies no longer in the catalog are skipped, as on a
+    // FileUserRepository reload.
+    public Stream<BorrowRecord> stream(User user, LibraryRepository books) {
+        List<BorrowRecord> records = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                List<Block> blocks = segment.blocksFor(user.getId());
+                if (blocks.isEmpty()) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                    for (Block block : blocks) {
+                        for (Row row : readBlock(segment, channel, block, user.getId())) {
+                            BookItem item = books.getBookItemByBarcode(row.barcode);
+                            if (item != null) {
+                                records.add(new BorrowRecord(row.recordId, item, user,
+                                        LocalDate.ofEpochDay(row.borrowDay), LocalDate.ofEpochDay(row.dueDay),
+                                        LocalDate.ofEpochDay(row.returnDay), row.finePaise / 100.0));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return records.stream();
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getRecordCount() {
+        lock.readLock().lock();
+        try {
+            long rows = 0;
+            for (Segment segment : segments) {
+                rows += segment.rows;
+            }
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getBytesOnDisk() throws IOException {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                bytes += Files.size(segment.path);
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // No file stays open between reads
+    @Override
+    public synchronized void close() {
+        lock.writeLock().lock();
+        try {
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the store monitor, so only readers run alongside
+    private void mergeTail() throws IOException {
+        while (segments.size() >= 2) {
+            Segment newer = segments.get(segments.size() - 1);
+            Segment older = segments.get(segments.size() - 2);
+            if (newer.rows < older.rows) {
+                return;
+            }
+            Segment merged = write(merge(older, newer), nextSegment, older.firstCovered,
+                    Math.max(older.highestRecord, newer.highestRecord));
+            nextSegment++;
+            lock.writeLock().lock();
+            try {
+                segments.remove(segments.size() - 1);
+                segments.remove(segments.size() - 1);
+                segments.add(merged);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Files.delete(older.path);
+            Files.delete(newer.path);
+            syncDirectory();
+        }
+    }
+
+    // Rows of both segments in user order; for one user, the older segment's
+    // rows come first. Reads a block of each at a time.
+    private Iterator<Row> merge(Segment older, Segment newer) {
+        Iterator<Row> first = rows(older);
+        Iterator<Row> second = rows(newer);
+        return new Iterator<Row>() {
+            private Row a = first.hasNext() ? first.next() : null;
+            private Row b = second.hasNext() ? second.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return a != null || b != null;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row;
+                if (b == null || (a != null && a.userId.compareTo(b.userId) <= 0)) {
+                    row = a;
+                    a = first.hasNext() ? first.next() : null;
+                } else {
+                    row = b;
+                    b = second.hasNext() ? second.next() : null;
+                }
+                return row;
+            }
+        };
+    }
+
+    // Every row of a segment in stored order, one block in memory at a time
+    private static Iterator<Row> rows(Segment segment) {
+        return segment.blocks.stream()
+                .flatMap(block -> {
+                    try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                        return readBlock(segment, channel, block, null).stream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .iterator();
+    }
+
+    // Writes rows (in user order) as segment number, durably
+    private Segment write(Iterator<Row> rows, int number, int firstCovered, int highestRecord) throws IOException {
+        Path file = directory.resolve(String.format("history-%06d.seg", number));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(highestRecord);
+            out.writeInt(firstCovered);
+            List<Row> block = new ArrayList<>(BLOCK_ROWS);
+            while (rows.hasNext()) {
+                block.add(rows.next());
+                if (block.size() == BLOCK_ROWS || !rows.hasNext()) {
+                    writeBlock(out, block);
+                    block.clear();
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return open(file);
+    }
+
+    // Makes renames and deletes in the directory durable
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms (Windows) cannot open a directory; renames there
+            // are durable once the file system flushes its own metadata
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, List<Row> rows) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(rows.size() * 64);
+        DataOutputStream columns = new DataOutputStream(raw);
+
+        List<String> users = new ArrayList<>();
+        List<Integer> runs = new ArrayList<>();
+        for (Row row : rows) {
+            if (!users.isEmpty() && users.get(users.size() - 1).equals(row.userId)) {
+                runs.set(runs.size() - 1, runs.get(runs.size() - 1) + 1);
+            } else {
+                users.add(row.userId);
+                runs.add(1);
+            }
+        }
+        writeVarint(columns, users.size());
+        for (int i = 0; i < users.size(); i++) {
+            columns.writeUTF(users.get(i));
+            writeVarint(columns, runs.get(i));
+        }
+
+        for (Row row : rows) {
+            columns.writeUTF(row.recordId);
+        }
+
+        Map<String, Integer> barcodes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int[] barcodeIndexes = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            String barcode = rows.get(i).barcode;
+            Integer index = barcodes.get(barcode);
+            if (index == null) {
+                index = dictionary.size();
+                barcodes.put(barcode, index);
+                dictionary.add(barcode);
+            }
+            barcodeIndexes[i] = index;
+        }
+        writeVarint(columns, dictionary.size());
+        for (String barcode : dictionary) {
+            columns.writeUTF(barcode);
+        }
+        for (int index : barcodeIndexes) {
+            writeVarint(columns, index);
+        }
+
+        long previous = 0;
+        for (Row row : rows) {
+            long delta = row.borrowDay - previous;
+            writeVarint(columns, (delta << 1) ^ (delta >> 63));
+            previous = row.borrowDay;
+        }
+        for (Row row : rows) {
+            writeVarint(columns, row.dueDay - row.borrowDay);
+        }
+        for (Row row : rows) {
+            writeVarint(columns, row.returnDay - row.borrowDay);
+        }
+        for (Row row : rows) {
+            writeVarint(columns, row.finePaise);
+        }
+
+        byte[] bytes = raw.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        out.writeInt(rows.size());
+        out.writeInt(bytes.length);
+        out.writeInt(deflated.size());
+        out.writeUTF(users.get(0));
+        out.writeUTF(users.get(users.size() - 1));
+        deflated.writeTo(out);
+    }
+
+    // The block's rows for userId, or all of them when userId is null
+    private static List<Row> readBlock(Segment segment, FileChannel channel, Block block, String userId)
+            throws IOException {
+        List<Row> result = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(segment, channel, block)));
+        int distinctUsers = (int) readVarint(in);
+        String[] users = new String[block.rows];
+        int first = 0;
+        int count = userId == null ? block.rows : 0;
+        int row = 0;
+        for (int i = 0; i < distinctUsers; i++) {
+            String id = in.readUTF();
+            int run = (int) readVarint(in);
+            if (id.equals(userId)) {
+                first = row;
+                count = run;
+            }
+            Arrays.fill(users, row, row + run, id);
+            row += run;
+        }
+        if (count == 0) {
+            return result;
+        }
+        int rows = block.rows;
+        String[] ids = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            if (i >= first && i < first + count) {
+                ids[i] = in.readUTF();
+            } else {
+                in.skipNBytes(in.readUnsignedShort()); // other users' rows
+            }
+        }
+        String[] dictionary = new String[(int) readVarint(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readUTF();
+        }
+        int[] barcodes = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            barcodes[i] = (int) readVarint(in);
+        }
+        long[] borrowDays = new long[rows];
+        long day = 0;
+        for (int i = 0; i < rows; i++) {
+            long zigzag = readVarint(in);
+            day += (zigzag >>> 1) ^ -(zigzag & 1);
+            borrowDays[i] = day;
+        }
+        long[] dueOffsets = readVarints(in, rows);
+        long[] returnOffsets = readVarints(in, rows);
+        long[] fines = readVarints(in, rows);
+        for (int i = first; i < first + count; i++) {
+            result.add(new Row(users[i], ids[i], dictionary[barcodes[i]], borrowDays[i],
+                    borrowDays[i] + dueOffsets[i], borrowDays[i] + returnOffsets[i], fines[i]));
+        }
+        return result;
+    }
+
+    private static byte[] inflate(Segment segment, FileChannel channel, Block block) throws IOException {
+        ByteBuffer deflated = ByteBuffer.allocate(block.deflatedLength);
+        while (deflated.hasRemaining()) {
+            if (channel.read(deflated, block.offset + deflated.position()) < 0) {
+                throw new EOFException("Truncated block in " + segment.path);
+            }
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated.array());
+        byte[] raw = new byte[block.rawLength];
+        try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                n += inflater.inflate(raw, n, raw.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt block in " + segment.path, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    // Reads the header and block headers; the file is closed again
+    private static Segment open(Path file) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a history segment: " + file);
+            }
+            int highestRecord = in.readInt();
+            int firstCovered = in.readInt();
+            long offset = HEADER_BYTES;
+            while (offset < size) {
+                int rows = in.readInt();
+                int rawLength = in.readInt();
+                int deflatedLength = in.readInt();
+                String firstUser = in.readUTF();
+                String lastUser = in.readUTF();
+                offset += 12 + utfLength(firstUser) + utfLength(lastUser);
+                blocks.add(new Block(offset, rows, rawLength, deflatedLength, firstUser, lastUser));
+                in.skipNBytes(deflatedLength);
+                offset += deflatedLength;
+            }
+            return new Segment(file, segmentNumber(file), firstCovered, highestRecord, blocks);
+        }
+    }
+
+    private static int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("history-".length(), name.indexOf('.')));
+    }
+
+    // Bytes DataOutput.writeUTF takes for s
+    private static int utfLength(String s) {
+        int length = 2;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long[] readVarints(DataInputStream in, int count) throws IOException {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarint(in);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,199 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Sequential ids with a check digit: a prefix letter, the sequence number in
+// decimal and a Luhn digit, e.g. barcode 42 is "C422". The check digit catches
+// any single mistyped digit and most swapped neighbours at the desk, and the
+// sequence doubles as a dense int key. A counter increment per id, where a
+// random UUID took a SecureRandom call.
+class CompactIdSequence {
+    static final CompactIdSequence BARCODES = new CompactIdSequence('C');
+    static final CompactIdSequence RECORD_IDS = new CompactIdSequence('R');
+
+    private final char prefix;
+    // A long, so neither issuing the last int nor observing it wraps around
+    private final AtomicLong next = new AtomicLong();
+
+    CompactIdSequence(char prefix) {
+        this.prefix = prefix;
+    }
+
+    public String next() {
+        long sequence = next.getAndIncrement();
+        if (sequence > Integer.MAX_VALUE) {
+            throw new IllegalStateException("No '" + prefix + "' ids left after " + format(Integer.MAX_VALUE));
+        }
+        return format((int) sequence);
+    }
+
+    public String format(int sequence) {
+        String digits = Integer.toString(sequence);
+        return prefix + digits + checkDigit(digits, 0, digits.length());
+    }
+
+    // The sequence number of a well-formed id with this prefix, otherwise -1
+    // (imported barcodes, UUIDs from older data, typos). Only the canonical
+    // form parses, so every sequence number has exactly one id.
+    public int parse(String id) {
+        int length = id.length();
+        if (length < 3 || length > 12 || id.charAt(0) != prefix || (id.charAt(1) == '0' && length > 3)) {
+            return -1;
+        }
+        long sequence = 0;
+        for (int i = 1; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (i < length - 1) {
+                sequence = sequence * 10 + (c - '0');
+            }
+        }
+        if (sequence > Integer.MAX_VALUE || id.charAt(length - 1) != checkDigit(id, 1, length - 1)) {
+            return -1;
+        }
+        return (int) sequence;
+    }
+
+    // Ids loaded from storage: new ones are issued after them. Only stores
+    // call this, so an id typed into a constructor cannot move the sequence.
+    public void observe(String id) {
+        observe(parse(id));
+    }
+
+    // Same, for a sequence number a store kept as its high-water mark
+    public void observe(int sequence) {
+        if (sequence >= 0) {
+            next.accumulateAndGet(sequence + 1L, Math::max);
+        }
+    }
+
+    // Luhn over the digits in [from, to)
+    private static char checkDigit(String digits, int from, int to) {
+        int sum = 0;
+        boolean twice = true;
+        for (int i = to - 1; i >= from; i--) {
+            int d = digits.charAt(i) - '0';
+            if (twice) {
+                d *= 2;
+                if (d > 9) {
+                    d -= 9;
+                }
+            }
+            sum += d;
+            twice = !twice;
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+}
+
+// Items by barcode. Compact barcodes go to pages of an array indexed by their
+// sequence number (no hashing, no per-entry node); any other barcode falls
+// back to a hash map.
+class BarcodeMap {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    // Sequences past this go to the hash map, so one far-off barcode cannot
+    // size the page directory for the whole int range
+    private static final int MAX_PAGED = 1 << 24;
+
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<BookItem>[] pages =
+            (AtomicReferenceArray<BookItem>[]) new AtomicReferenceArray<?>[0];
+    private final Map<String, BookItem> others = new ConcurrentHashMap<>();
+
+    public BookItem get(String barcode) {
+        int sequence = paged(barcode);
+        if (sequence < 0) {
+            return others.get(barcode);
+        }
+        AtomicReferenceArray<BookItem> page = page(sequence, false);
+        if (page == null) {
+            return null;
+        }
+        return page.get(sequence & (PAGE_SIZE - 1));
+    }
+
+    public BookItem put(BookItem item) {
+        int sequence = paged(item.getBarcode());
+        if (sequence < 0) {
+            return others.put(item.getBarcode(), item);
+        }
+        return page(sequence, true).getAndSet(sequence & (PAGE_SIZE - 1), item);
+    }
+
+    public BookItem putIfAbsent(BookItem item) {
+        int sequence = paged(item.getBarcode());
+        if (sequence < 0) {
+            return others.putIfAbsent(item.getBarcode(), item);
+        }
+        AtomicReferenceArray<BookItem> page = page(sequence, true);
+        int slot = sequence & (PAGE_SIZE - 1);
+        while (true) {
+            BookItem existing = page.get(slot);
+            if (existing != null || page.compareAndSet(slot, null, item)) {
+                return existing;
+            }
+        }
+    }
+
+    public BookItem remove(String barcode) {
+        int sequence = paged(barcode);
+        if (sequence < 0) {
+            return others.remove(barcode);
+        }
+        AtomicReferenceArray<BookItem> page = page(sequence, false);
+        return page != null ? page.getAndSet(sequence & (PAGE_SIZE - 1), null) : null;
+    }
+
+    public List<BookItem> values() {
+        List<BookItem> values = new ArrayList<>(others.values());
+        for (AtomicReferenceArray<BookItem> page : pages) {
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                BookItem item = page.get(i);
+                if (item != null) {
+                    values.add(item);
+                }
+            }
+        }
+        return values;
+    }
+
+    // The page slot for a compact barcode, or -1 for the hash map
+    private static int paged(String barcode) {
+        int sequence = CompactIdSequence.BARCODES.parse(barcode);
+        return sequence < MAX_PAGED ? sequence : -1;
+    }
+
+    private AtomicReferenceArray<BookItem> page(int sequence, boolean create) {
+        int index = sequence >>> PAGE_BITS;
+        AtomicReferenceArray<BookItem>[] current = pages;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        if (!create) {
+            return null;
+        }
+        synchronized (this) {
+            current = pages;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = new AtomicReferenceArray<>(PAGE_SIZE);
+            }
+            pages = current;
+            return current[index];
+        }
+    }
+}
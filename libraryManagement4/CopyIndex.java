@@ -0,0 +1,93 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Physical copies of one title with live availability counters
+class TitleCopies {
+    private final String isbn;
+    private final Set<BookItem> copies = ConcurrentHashMap.newKeySet();
+    private final Set<BookItem> available = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger availableCount = new AtomicInteger();
+    private final AtomicInteger borrowedCount = new AtomicInteger();
+
+    TitleCopies(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public int getTotalCount() {
+        return copies.size();
+    }
+
+    public int getAvailableCount() {
+        return availableCount.get();
+    }
+
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    public List<BookItem> getCopies() {
+        return new ArrayList<>(copies);
+    }
+
+    public List<BookItem> getAvailableCopies() {
+        return new ArrayList<>(available);
+    }
+
+    // Any copy currently on the shelf, or null; O(1) expected
+    public BookItem anyAvailable() {
+        Iterator<BookItem> it = available.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    void move(BookItem item, BookStatus from, BookStatus to) {
+        if (from == null) {
+            copies.add(item);
+        }
+        if (from == BookStatus.AVAILABLE) {
+            available.remove(item);
+            availableCount.decrementAndGet();
+        } else if (from == BookStatus.BORROWED) {
+            borrowedCount.decrementAndGet();
+        }
+        if (to == BookStatus.AVAILABLE) {
+            available.add(item);
+            availableCount.incrementAndGet();
+        } else if (to == BookStatus.BORROWED) {
+            borrowedCount.incrementAndGet();
+        }
+        if (to == null) {
+            copies.remove(item);
+        }
+    }
+}
+
+// ISBN -> copies index, fed the status transitions filed by StatusIndex
+class CopyIndex implements StatusTransitionListener {
+    private final Map<String, TitleCopies> byIsbn = new ConcurrentHashMap<>();
+
+    @Override
+    public void onTransition(BookItem item, BookStatus from, BookStatus to) {
+        String isbn = item.getBook().getIsbn();
+        byIsbn.computeIfAbsent(isbn, TitleCopies::new).move(item, from, to);
+    }
+
+    public TitleCopies get(String isbn) {
+        return byIsbn.get(isbn);
+    }
+
+    public BookItem anyAvailable(String isbn) {
+        TitleCopies copies = byIsbn.get(isbn);
+        return copies != null ? copies.anyAvailable() : null;
+    }
+}
@@ -0,0 +1,178 @@
+package libraryManagement4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// Crash check for the file-backed repositories: a loan change is cut short
+// between its catalog write and its user write, the stores are abandoned
+// without closing (as a killed process would leave them) and reopened. Every
+// copy must come back consistent with the saved loans and be lendable again.
+// Exits 1 on violation.
+//
+// Usage: java libraryManagement4.CrashRecoveryCheck
+public class CrashRecoveryCheck {
+    private static final String ISBN = "978-0-13-468599-1";
+
+    private static int violations;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("crash-recovery");
+
+        // Crash after the copy is saved BORROWED, before the loan is saved
+        Library library = Library.open(dir, CrashPoint.BEFORE_USER_WRITE);
+        library.addCopy();
+        library.service.addUser(new User("U1", "Alice", "alice@example.com", MembershipType.STUDENT));
+        library.crashDuring(() -> library.service.borrowBook(library.barcode, "U1"));
+        Library afterBorrow = Library.open(dir, CrashPoint.NONE);
+        expect(afterBorrow, BookStatus.AVAILABLE, 0, "crash during borrow");
+        afterBorrow.service.borrowBook(afterBorrow.barcode, "U1");
+        afterBorrow.close();
+
+        // Crash after the loan is saved closed, before the copy is saved shelved
+        Library returning = Library.open(dir, CrashPoint.AFTER_USER_WRITE);
+        expect(returning, BookStatus.BORROWED, 1, "loan before return");
+        returning.crashDuring(() -> returning.service.returnBook(returning.barcode, "U1"));
+        Library afterReturn = Library.open(dir, CrashPoint.NONE);
+        expect(afterReturn, BookStatus.AVAILABLE, 0, "crash during return");
+        if (afterReturn.users.getUserById("U1").getBorrowRecords().size() != 1) {
+            fail("crash during return: the closed loan is missing from the history");
+        }
+
+        // Shut down with a copy set aside for a hold; holds are not persisted
+        afterReturn.service.addUser(new User("U2", "Bob", "bob@example.com", MembershipType.STUDENT));
+        afterReturn.service.borrowBook(afterReturn.barcode, "U1");
+        afterReturn.service.placeHold(ISBN, "U2");
+        afterReturn.service.returnBook(afterReturn.barcode, "U1");
+        afterReturn.close();
+        Library afterHold = Library.open(dir, CrashPoint.NONE);
+        expect(afterHold, BookStatus.AVAILABLE, 0, "restart with a READY hold");
+        afterHold.service.borrowBook(afterHold.barcode, "U2");
+        afterHold.service.returnBook(afterHold.barcode, "U2");
+        afterHold.close();
+
+        System.out.println("Violations: " + violations);
+        if (violations > 0) {
+            System.exit(1);
+        }
+        System.out.println("✅ Copies and loans agree after every simulated crash");
+    }
+
+    private static void expect(Library library, BookStatus status, int activeLoans, String stage) {
+        BookItem item = library.books.getBookItemByBarcode(library.barcode);
+        int loans = library.users.getUserById("U1").getActiveBorrowCount();
+        int available = status == BookStatus.AVAILABLE ? 1 : 0;
+        if (item.getStatus() != status || loans != activeLoans
+                || library.books.countItemsByStatus(BookStatus.AVAILABLE) != available
+                || library.books.getTitleCopies(ISBN).getAvailableCount() != available) {
+            fail(stage + ": copy " + item.getStatus() + " with " + loans + " open loans, expected " + status +
+                    " with " + activeLoans);
+        }
+    }
+
+    private static void fail(String message) {
+        violations++;
+        System.out.println("❌ " + message);
+    }
+
+    private enum CrashPoint {
+        NONE, BEFORE_USER_WRITE, AFTER_USER_WRITE
+    }
+
+    private static final class SimulatedCrash extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Dies on the first loan write, before or after it reaches the store
+    private static final class CrashingUserRepository implements UserRepository {
+        private final FileUserRepository delegate;
+        private final CrashPoint crashPoint;
+
+        CrashingUserRepository(FileUserRepository delegate, CrashPoint crashPoint) {
+            this.delegate = delegate;
+            this.crashPoint = crashPoint;
+        }
+
+        @Override
+        public void addUser(User user) {
+            delegate.addUser(user);
+        }
+
+        @Override
+        public User getUserById(String id) {
+            return delegate.getUserById(id);
+        }
+
+        @Override
+        public void updateUser(User user) {
+            delegate.updateUser(user);
+        }
+
+        @Override
+        public void updateBorrowRecord(BorrowRecord record) {
+            if (crashPoint == CrashPoint.BEFORE_USER_WRITE) {
+                throw new SimulatedCrash();
+            }
+            delegate.updateBorrowRecord(record);
+            if (crashPoint == CrashPoint.AFTER_USER_WRITE) {
+                throw new SimulatedCrash();
+            }
+        }
+
+        @Override
+        public List<User> getAllUsers() {
+            return delegate.getAllUsers();
+        }
+
+        @Override
+        public boolean removeUser(String id) {
+            return delegate.removeUser(id);
+        }
+    }
+
+    // One title with one copy over stores in dir
+    private static final class Library {
+        final FileLibraryRepository books;
+        final FileUserRepository fileUsers;
+        final UserRepository users;
+        final LibraryService service;
+        String barcode;
+
+        private Library(FileLibraryRepository books, FileUserRepository fileUsers, CrashPoint crashPoint) {
+            this.books = books;
+            this.fileUsers = fileUsers;
+            this.users = new CrashingUserRepository(fileUsers, crashPoint);
+            this.service = new LibraryService(books, users, new StandardFineCalculator());
+            List<BookItem> items = books.getAllItems();
+            this.barcode = items.isEmpty() ? null : items.get(0).getBarcode();
+        }
+
+        static Library open(Path dir, CrashPoint crashPoint) throws IOException {
+            FileLibraryRepository books = new FileLibraryRepository(dir.resolve("books"));
+            return new Library(books, new FileUserRepository(dir.resolve("users"), books), crashPoint);
+        }
+
+        void addCopy() {
+            Book book = BookFactory.createBook(ISBN, "Clean Code", "Robert Martin", "Programming");
+            BookItem item = BookItemFactory.createBookItem(book, "A-101");
+            service.addBookItem(item);
+            barcode = item.getBarcode();
+        }
+
+        // The stores are left open, as a killed process leaves them
+        void crashDuring(Runnable operation) {
+            try {
+                operation.run();
+                fail("the simulated crash did not happen");
+            } catch (SimulatedCrash expected) {
+                // nothing after the crash point ran
+            }
+        }
+
+        void close() throws IOException {
+            fileUsers.close();
+            books.close();
+        }
+    }
+}
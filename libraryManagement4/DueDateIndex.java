@@ -0,0 +1,60 @@
+package libraryManagement4;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Active borrow records ordered by due date (skip list).
+// Keys pack (epoch day << 32 | sequence), so every record has a unique key and
+// "due before D" is the head of the map up to D's first key.
+class DueDateIndex {
+    private final ConcurrentSkipListMap<Long, BorrowRecord> byDueDate = new ConcurrentSkipListMap<>();
+    private final Map<BorrowRecord, Long> keys = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Day the last sweep ran for; records due before it were already reported
+    private LocalDate lastSweep;
+
+    public void add(BorrowRecord record) {
+        long key = keyOf(record.getDueDate()) | (sequence.getAndIncrement() & 0xFFFFFFFFL);
+        if (keys.putIfAbsent(record, key) == null) {
+            byDueDate.put(key, record);
+        }
+    }
+
+    public void remove(BorrowRecord record) {
+        Long key = keys.remove(record);
+        if (key != null) {
+            byDueDate.remove(key);
+        }
+    }
+
+    // Records overdue on the given day (due strictly before it), earliest first
+    public List<BorrowRecord> overdueAsOf(LocalDate date) {
+        return new ArrayList<>(byDueDate.headMap(keyOf(date)).values());
+    }
+
+    // Records that became overdue since the previous sweep, i.e. due in
+    // [lastSweep, today); the first sweep reports everything overdue today
+    public synchronized List<BorrowRecord> sweep(LocalDate today) {
+        if (lastSweep != null && !today.isAfter(lastSweep)) {
+            return new ArrayList<>();
+        }
+        Map<Long, BorrowRecord> crossed = lastSweep == null
+                ? byDueDate.headMap(keyOf(today))
+                : byDueDate.subMap(keyOf(lastSweep), keyOf(today));
+        lastSweep = today;
+        return new ArrayList<>(crossed.values());
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private static long keyOf(LocalDate date) {
+        return date.toEpochDay() << 32;
+    }
+}
@@ -0,0 +1,379 @@
+package libraryManagement4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Durable key -> bytes store: an append-only log plus a memory-mapped
+// checkpoint index, shared by the file-backed repositories.
+//
+// <base>.log  16-byte header [magic][version][generation], then frames
+//             [payload length][crc32 of payload][payload], payload =
+//             [op][key length][key utf-8][value]. A torn or corrupt tail
+//             frame (crash mid-append) is cut off on open.
+// <base>.idx  written at each checkpoint: a 64-byte header [magic][version]
+//             [log generation][log offset covered][capacity][count] and an
+//             open-addressing table of [key hash][frame offset + 1] slots.
+//
+// Opening reads one frame per live key through the index and replays only
+// the log written after the last checkpoint, so startup depends on the live
+// data and the checkpoint interval, not on the log length. A checkpoint
+// that finds the log mostly garbage first rewrites it with live frames only,
+// under a new generation, so a stale index is never applied to it.
+class DurableStore implements Closeable {
+    private static final int LOG_MAGIC = 0x4C49_424C; // "LIBL"
+    private static final int IDX_MAGIC = 0x4C49_4249; // "LIBI"
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 16;
+    private static final int IDX_HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 16;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    // Compact when live frames are less than half the log (and it is worth it)
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private static final class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path logPath;
+    private final Path indexPath;
+    private final int checkpointInterval;
+    private final boolean syncEachWrite;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private FileChannel log;
+    private long generation;
+    private long logEnd;
+    private long liveBytes;
+    private int sinceCheckpoint;
+
+    // checkpointInterval: writes between automatic checkpoints.
+    // syncEachWrite: force every append to disk before returning.
+    public DurableStore(Path base, int checkpointInterval, boolean syncEachWrite) throws IOException {
+        this.logPath = base.resolveSibling(base.getFileName() + ".log");
+        this.indexPath = base.resolveSibling(base.getFileName() + ".idx");
+        this.checkpointInterval = checkpointInterval;
+        this.syncEachWrite = syncEachWrite;
+        // Leftovers of a checkpoint that crashed before its atomic move
+        Files.deleteIfExists(logPath.resolveSibling(logPath.getFileName() + ".tmp"));
+        Files.deleteIfExists(indexPath.resolveSibling(indexPath.getFileName() + ".tmp"));
+        openLog();
+        long replayFrom = loadIndex();
+        replay(replayFrom);
+    }
+
+    // Live records, oldest write first
+    public synchronized Map<String, byte[]> readAll() throws IOException {
+        List<Map.Entry<String, Entry>> live = new ArrayList<>(entries.entrySet());
+        live.sort((a, b) -> Long.compare(a.getValue().offset, b.getValue().offset));
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> e : live) {
+            records.put(e.getKey(), readValue(e.getValue()));
+        }
+        return records;
+    }
+
+    public synchronized void put(String key, byte[] value) throws IOException {
+        Entry previous = entries.put(key, append(PUT, key, value));
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+        liveBytes += entries.get(key).length;
+        afterWrite();
+    }
+
+    public synchronized void delete(String key) throws IOException {
+        Entry previous = entries.remove(key);
+        if (previous == null) {
+            return;
+        }
+        liveBytes -= previous.length;
+        append(DELETE, key, new byte[0]);
+        afterWrite();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getLogBytes() {
+        return logEnd;
+    }
+
+    // Makes everything written so far recoverable without replaying it
+    public synchronized void checkpoint() throws IOException {
+        log.force(false);
+        if (logEnd - LOG_HEADER_BYTES > 2 * liveBytes && logEnd > MIN_COMPACT_BYTES) {
+            compact();
+        }
+        writeIndex();
+        sinceCheckpoint = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpoint();
+        log.close();
+    }
+
+    private void afterWrite() throws IOException {
+        if (syncEachWrite) {
+            log.force(false);
+        }
+        if (++sinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    // ---- log ---------------------------------------------------------------
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER_BYTES) {
+            generation = System.nanoTime();
+            log.truncate(0);
+            writeLogHeader(log, generation);
+            log.force(false);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(log, header, 0);
+            if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a library log: " + logPath);
+            }
+            generation = header.getLong(8);
+        }
+        logEnd = log.size();
+    }
+
+    private static void writeLogHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation).flip();
+        channel.write(header, 0);
+    }
+
+    private Entry append(byte op, String key, byte[] value) throws IOException {
+        ByteBuffer frame = encodeFrame(op, key, value);
+        long offset = logEnd;
+        int length = frame.remaining();
+        try {
+            while (frame.hasRemaining()) {
+                logEnd += log.write(frame, logEnd);
+            }
+        } catch (IOException e) {
+            // Drop the partial frame, or recovery would stop at it and lose later writes
+            logEnd = offset;
+            log.truncate(offset);
+            throw e;
+        }
+        return new Entry(offset, length);
+    }
+
+    private ByteBuffer encodeFrame(byte op, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + 4 + keyBytes.length + value.length;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(payloadLength).putInt(0);
+        frame.put(op).putInt(keyBytes.length).put(keyBytes).put(value);
+        crc.reset();
+        crc.update(frame.array(), FRAME_HEADER_BYTES, payloadLength);
+        frame.putInt(4, (int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    // Payload of the frame at offset, or null if it is torn or corrupt
+    private ByteBuffer readFrame(long offset) throws IOException {
+        if (offset + FRAME_HEADER_BYTES > logEnd) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(log, header, offset);
+        int length = header.getInt(0);
+        if (length < 5 || offset + FRAME_HEADER_BYTES + length > logEnd) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(log, payload, offset + FRAME_HEADER_BYTES);
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+        return payload;
+    }
+
+    private byte[] readValue(Entry entry) throws IOException {
+        ByteBuffer payload = readFrame(entry.offset);
+        if (payload == null) {
+            throw new IOException("Corrupt frame at " + entry.offset + " in " + logPath);
+        }
+        int keyLength = payload.getInt(1);
+        byte[] value = new byte[payload.limit() - 5 - keyLength];
+        payload.position(5 + keyLength);
+        payload.get(value);
+        return value;
+    }
+
+    private static String keyOf(ByteBuffer payload) {
+        int keyLength = payload.getInt(1);
+        return new String(payload.array(), 5, keyLength, StandardCharsets.UTF_8);
+    }
+
+    private void replay(long from) throws IOException {
+        long offset = from;
+        while (offset < logEnd) {
+            ByteBuffer payload = readFrame(offset);
+            if (payload == null) {
+                // Torn tail from a crash mid-append: everything after it is lost anyway
+                log.truncate(offset);
+                logEnd = offset;
+                break;
+            }
+            int length = FRAME_HEADER_BYTES + payload.limit();
+            String key = keyOf(payload);
+            Entry previous = payload.get(0) == PUT
+                    ? entries.put(key, new Entry(offset, length))
+                    : entries.remove(key);
+            if (previous != null) {
+                liveBytes -= previous.length;
+            }
+            if (payload.get(0) == PUT) {
+                liveBytes += length;
+            }
+            offset += length;
+        }
+    }
+
+    // Rewrites the log with live frames only, under a new generation
+    private void compact() throws IOException {
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        long newGeneration = generation + 1;
+        Map<String, Entry> moved = new HashMap<>();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeLogHeader(out, newGeneration);
+            long position = LOG_HEADER_BYTES;
+            List<Map.Entry<String, Entry>> live = new ArrayList<>(entries.entrySet());
+            live.sort((a, b) -> Long.compare(a.getValue().offset, b.getValue().offset));
+            for (Map.Entry<String, Entry> e : live) {
+                ByteBuffer frame = ByteBuffer.allocate(e.getValue().length);
+                readFully(log, frame, e.getValue().offset);
+                frame.flip();
+                moved.put(e.getKey(), new Entry(position, e.getValue().length));
+                while (frame.hasRemaining()) {
+                    position += out.write(frame, position);
+                }
+            }
+            out.force(true);
+        }
+        log.close();
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+        entries.putAll(moved);
+        openLog();
+    }
+
+    // ---- checkpoint index --------------------------------------------------
+
+    // Restores entries from the index; returns the log offset to replay from
+    private long loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return LOG_HEADER_BYTES;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (channel.size() < IDX_HEADER_BYTES) {
+                return LOG_HEADER_BYTES;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            long covered = map.getLong(16);
+            int capacity = map.getInt(24);
+            // An index for another generation, or ahead of a log that lost its
+            // tail, can't be trusted: fall back to a full replay
+            if (map.getInt(0) != IDX_MAGIC || map.getInt(4) != VERSION || map.getLong(8) != generation
+                    || covered > logEnd || channel.size() != IDX_HEADER_BYTES + (long) capacity * SLOT_BYTES) {
+                return LOG_HEADER_BYTES;
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                long offset = map.getLong(IDX_HEADER_BYTES + slot * SLOT_BYTES + 8) - 1;
+                if (offset < 0) {
+                    continue;
+                }
+                ByteBuffer payload = readFrame(offset);
+                if (payload == null) {
+                    entries.clear();
+                    liveBytes = 0;
+                    return LOG_HEADER_BYTES;
+                }
+                int length = FRAME_HEADER_BYTES + payload.limit();
+                entries.put(keyOf(payload), new Entry(offset, length));
+                liveBytes += length;
+            }
+            return covered;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(16, entries.size() * 2 - 1)) << 1;
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    IDX_HEADER_BYTES + (long) capacity * SLOT_BYTES);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            int mask = capacity - 1;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                long hash = hash(e.getKey());
+                int slot = (int) hash & mask;
+                while (map.getLong(IDX_HEADER_BYTES + slot * SLOT_BYTES + 8) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                map.putLong(IDX_HEADER_BYTES + slot * SLOT_BYTES, hash);
+                map.putLong(IDX_HEADER_BYTES + slot * SLOT_BYTES + 8, e.getValue().offset + 1);
+            }
+            map.putInt(0, IDX_MAGIC).putInt(4, VERSION).putLong(8, generation).putLong(16, logEnd)
+                    .putInt(24, capacity).putInt(28, entries.size());
+            map.force();
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 64-bit FNV-1a over the key's chars
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return h ^ (h >>> 32);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package libraryManagement4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Field encoding shared by the file-backed repositories
+class RecordCodec {
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeLong(date != null ? date.toEpochDay() : NO_DATE);
+    }
+
+    static LocalDate readDate(DataInputStream in) throws IOException {
+        long day = in.readLong();
+        return day != NO_DATE ? LocalDate.ofEpochDay(day) : null;
+    }
+}
+
+// Repository Pattern - durable catalog.
+// Reads are served by an in-memory repository (same HashMap lookups and
+// indexes); every change is appended to a DurableStore before returning.
+class FileLibraryRepository implements LibraryRepository, Closeable {
+    private final InMemoryLibraryRepository memory = new InMemoryLibraryRepository();
+    private final DurableStore store;
+
+    public FileLibraryRepository(Path base) throws IOException {
+        this(base, 10_000, false);
+    }
+
+    public FileLibraryRepository(Path base, int checkpointInterval, boolean syncEachWrite) throws IOException {
+        this.store = new DurableStore(base, checkpointInterval, syncEachWrite);
+        // Copies of one title share a Book, as they did before the restart
+        Map<String, Book> books = new HashMap<>();
+        List<BookItem> items = new ArrayList<>(store.size());
+        List<BookItem> released = new ArrayList<>();
+        for (byte[] value : store.readAll().values()) {
+            BookItem item = decode(value, books);
+            // Holds are not persisted, so nobody is waiting for a copy set
+            // aside before the restart: it goes back on the shelf
+            if (item.getStatus() == BookStatus.RESERVED) {
+                item.restore(BookStatus.AVAILABLE, null, null);
+                released.add(item);
+            }
+            items.add(item);
+        }
+        memory.addBookItems(items);
+        released.forEach(this::persist);
+    }
+
+    @Override
+    public void addBookItem(BookItem item) {
+        memory.addBookItem(item);
+        persist(item);
+    }
+
+    @Override
+    public void addBookItems(List<BookItem> items) {
+        memory.addBookItems(items);
+        items.forEach(this::persist);
+    }
+
+    @Override
+    public void addCatalogListener(CatalogListener listener) {
+        memory.addCatalogListener(listener);
+    }
+
+    @Override
+    public BookItem getBookItemByBarcode(String barcode) {
+        return memory.getBookItemByBarcode(barcode);
+    }
+
+    @Override
+    public List<BookItem> getAllItems() {
+        return memory.getAllItems();
+    }
+
+    @Override
+    public Iterator<BookItem> iterateItems(int fromCatalogId) {
+        return memory.iterateItems(fromCatalogId);
+    }
+
+    @Override
+    public List<BookItem> getAvailableItems() {
+        return memory.getAvailableItems();
+    }
+
+    @Override
+    public List<BookItem> getItemsByStatus(BookStatus status) {
+        return memory.getItemsByStatus(status);
+    }
+
+    @Override
+    public int countItemsByStatus(BookStatus status) {
+        return memory.countItemsByStatus(status);
+    }
+
+    @Override
+    public TitleCopies getTitleCopies(String isbn) {
+        return memory.getTitleCopies(isbn);
+    }
+
+    @Override
+    public BookItem findAvailableCopy(String isbn) {
+        return memory.findAvailableCopy(isbn);
+    }
+
+    @Override
+    public void updateBookItem(BookItem item) {
+        memory.updateBookItem(item);
+        persist(item);
+    }
+
+    @Override
+    public void updateBookStatus(BookItem item) {
+        memory.updateBookStatus(item);
+        persist(item);
+    }
+
+    @Override
+    public boolean removeBookItem(String barcode) {
+        if (!memory.removeBookItem(barcode)) {
+            return false;
+        }
+        try {
+            store.delete(barcode);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    public void checkpoint() throws IOException {
+        store.checkpoint();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    // Encoded under the store's lock, so concurrent updates of one item are
+    // logged in the order their state was read
+    private void persist(BookItem item) {
+        try {
+            synchronized (store) {
+                store.put(item.getBarcode(), encode(item));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(BookItem item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Book book = item.getBook();
+        out.writeUTF(book.getIsbn());
+        RecordCodec.writeString(out, book.getTitle());
+        RecordCodec.writeString(out, book.getAuthor());
+        RecordCodec.writeString(out, book.getCategory());
+        RecordCodec.writeString(out, book.getPublisher());
+        out.writeInt(book.getPublicationYear());
+        out.writeUTF(item.getBarcode());
+        RecordCodec.writeString(out, item.getRack());
+        out.writeByte(item.getStatus().ordinal());
+        RecordCodec.writeDate(out, item.getBorrowedDate());
+        RecordCodec.writeDate(out, item.getDueDate());
+        return bytes.toByteArray();
+    }
+
+    private static BookItem decode(byte[] value, Map<String, Book> books) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        String isbn = in.readUTF();
+        String title = RecordCodec.readString(in);
+        String author = RecordCodec.readString(in);
+        String category = RecordCodec.readString(in);
+        String publisher = RecordCodec.readString(in);
+        int year = in.readInt();
+        Book book = books.get(isbn);
+        if (book == null) {
+            book = BookFactory.createBook(isbn, title, author, category);
+            book.setPublisher(publisher);
+            book.setPublicationYear(year);
+            books.put(isbn, book);
+        }
+        String barcode = in.readUTF();
+        CompactIdSequence.BARCODES.observe(barcode);
+        BookItem item = new BookItem(barcode, book, RecordCodec.readString(in));
+        item.restore(BookStatus.values()[in.readByte()], RecordCodec.readDate(in), RecordCodec.readDate(in));
+        return item;
+    }
+}
+
+// Repository Pattern - durable users with their loans.
+// Each user is stored as a small header record under its id, and each loan
+// of the hot history as its own record under "<user id>/<record id>", so a
+// borrow, return or accrual writes one loan rather than the whole history.
+// Borrow records refer to copies by barcode, resolved against the catalog
+// repository on open; records of copies no longer in the catalog are dropped
+// and what they owe is kept as carried fines.
+// A loan change writes the catalog and this store separately, so a crash in
+// between can leave a copy BORROWED with no open loan behind it (borrow
+// saves the copy first, return saves the loan first). The loan records are
+// the truth: such copies are shelved again on open.
+class FileUserRepository implements UserRepository, Closeable {
+    private static final byte USER = 'U';
+    private static final byte LOAN = 'L';
+    // History order: borrowed first, then issued first
+    private static final Comparator<BorrowRecord> HISTORY_ORDER = Comparator
+            .comparing(BorrowRecord::getBorrowDate)
+            .thenComparingInt(record -> CompactIdSequence.RECORD_IDS.parse(record.getId()));
+
+    private final InMemoryUserRepository memory = new InMemoryUserRepository();
+    private final DurableStore store;
+    // Record ids with a loan record in the store, per user; guarded by store
+    private final Map<String, Set<String>> savedLoans = new HashMap<>();
+
+    public FileUserRepository(Path base, LibraryRepository books) throws IOException {
+        this(base, books, 10_000, false);
+    }
+
+    public FileUserRepository(Path base, LibraryRepository books, int checkpointInterval, boolean syncEachWrite)
+            throws IOException {
+        this.store = new DurableStore(base, checkpointInterval, syncEachWrite);
+        load(books);
+        releaseOrphanedCopies(books);
+    }
+
+    private void load(LibraryRepository books) throws IOException {
+        Map<String, User> users = new LinkedHashMap<>();
+        Map<String, List<BorrowRecord>> loans = new HashMap<>();
+        List<String> dropped = new ArrayList<>();
+        Set<User> legacy = new HashSet<>();
+        Map<User, Long> carried = new HashMap<>();
+        Map<String, byte[]> records = store.readAll();
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            if (entry.getValue()[0] == USER) {
+                User user = decodeUser(entry.getValue());
+                users.put(user.getId(), user);
+            } else if (entry.getValue()[0] != LOAN) {
+                // Whole user with its history, as stored before loans had keys
+                User user = decodeLegacy(entry.getValue(), books);
+                users.put(user.getId(), user);
+                legacy.add(user);
+            }
+        }
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            if (entry.getValue()[0] != LOAN) {
+                continue;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.getValue(), 1,
+                    entry.getValue().length - 1));
+            User user = users.get(in.readUTF());
+            if (user == null) {
+                dropped.add(entry.getKey()); // its user was removed mid-delete
+                continue;
+            }
+            BorrowRecord record = decodeLoan(in, user, books);
+            if (record.getBookItem() == null) {
+                // The loan goes, what it owes stays in the balance
+                double owed = record.getReturnDate() != null ? record.getFine() : record.getAccruedFine();
+                carried.merge(user, FineLedger.toPaise(owed), Long::sum);
+                dropped.add(entry.getKey());
+                continue;
+            }
+            loans.computeIfAbsent(user.getId(), id -> new ArrayList<>()).add(record);
+        }
+        for (User user : users.values()) {
+            List<BorrowRecord> history = loans.getOrDefault(user.getId(), new ArrayList<>());
+            history.sort(HISTORY_ORDER);
+            history.forEach(user::addBorrowRecord);
+            Set<String> saved = new HashSet<>();
+            history.forEach(record -> saved.add(record.getId()));
+            savedLoans.put(user.getId(), saved);
+            memory.addUser(user);
+        }
+        for (String key : dropped) {
+            store.delete(key);
+        }
+        for (Map.Entry<User, Long> entry : carried.entrySet()) {
+            User user = entry.getKey();
+            user.restoreCarriedFines(user.getCarriedFines() + entry.getValue());
+            persist(user);
+        }
+        for (User user : legacy) {
+            persist(user);
+        }
+    }
+
+    private void releaseOrphanedCopies(LibraryRepository books) {
+        Set<String> onLoan = new HashSet<>();
+        for (User user : memory.getAllUsers()) {
+            for (BorrowRecord record : user.getActiveBorrows()) {
+                onLoan.add(record.getBookItem().getBarcode());
+            }
+        }
+        for (BookItem item : books.getItemsByStatus(BookStatus.BORROWED)) {
+            if (!onLoan.contains(item.getBarcode()) && item.tryTransition(BookStatus.BORROWED, BookStatus.AVAILABLE)) {
+                books.updateBookStatus(item);
+            }
+        }
+    }
+
+    @Override
+    public void addUser(User user) {
+        memory.addUser(user);
+        persist(user);
+    }
+
+    @Override
+    public User getUserById(String id) {
+        return memory.getUserById(id);
+    }
+
+    @Override
+    public void updateUser(User user) {
+        memory.updateUser(user);
+        persist(user);
+    }
+
+    // One loan record; the header and the other loans are not rewritten
+    @Override
+    public void updateBorrowRecord(BorrowRecord record) {
+        User user = record.getUser();
+        memory.updateBorrowRecord(record);
+        try {
+            synchronized (store) {
+                store.put(loanKey(user.getId(), record.getId()), encodeLoan(record));
+                savedLoans.computeIfAbsent(user.getId(), id -> new HashSet<>()).add(record.getId());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return memory.getAllUsers();
+    }
+
+    @Override
+    public boolean removeUser(String id) {
+        if (!memory.removeUser(id)) {
+            return false;
+        }
+        try {
+            synchronized (store) {
+                // Header first: loans left by a crash here are dropped on open
+                store.delete(id);
+                Set<String> saved = savedLoans.remove(id);
+                if (saved != null) {
+                    for (String recordId : saved) {
+                        store.delete(loanKey(id, recordId));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    public void checkpoint() throws IOException {
+        store.checkpoint();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    // The header, loans not stored yet, and deletes for loans that left the
+    // hot history (archived). Stored loans are not rewritten: their changes
+    // arrive through updateBorrowRecord.
+    private void persist(User user) {
+        try {
+            synchronized (store) {
+                store.put(user.getId(), encodeUser(user));
+                Set<String> saved = savedLoans.computeIfAbsent(user.getId(), id -> new HashSet<>());
+                Set<String> current = new HashSet<>();
+                for (BorrowRecord record : user.getBorrowRecords()) {
+                    current.add(record.getId());
+                    if (saved.add(record.getId())) {
+                        store.put(loanKey(user.getId(), record.getId()), encodeLoan(record));
+                    }
+                }
+                for (Iterator<String> it = saved.iterator(); it.hasNext(); ) {
+                    String recordId = it.next();
+                    if (!current.contains(recordId)) {
+                        store.delete(loanKey(user.getId(), recordId));
+                        it.remove();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String loanKey(String userId, String recordId) {
+        return userId + "/" + recordId;
+    }
+
+    private static byte[] encodeUser(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(USER);
+        out.writeUTF(user.getId());
+        RecordCodec.writeString(out, user.getName());
+        RecordCodec.writeString(out, user.getEmail());
+        out.writeByte(user.getMembershipType().ordinal());
+        out.writeLong(user.getCarriedFines());
+        return bytes.toByteArray();
+    }
+
+    private static User decodeUser(byte[] value) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value, 1, value.length - 1));
+        User user = new User(in.readUTF(), RecordCodec.readString(in), RecordCodec.readString(in),
+                MembershipType.values()[in.readByte()]);
+        user.restoreCarriedFines(in.readLong());
+        return user;
+    }
+
+    private static byte[] encodeLoan(BorrowRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(LOAN);
+        out.writeUTF(record.getUser().getId());
+        writeLoanFields(out, record);
+        return bytes.toByteArray();
+    }
+
+    private static void writeLoanFields(DataOutputStream out, BorrowRecord record) throws IOException {
+        out.writeUTF(record.getId());
+        out.writeUTF(record.getBookItem().getBarcode());
+        RecordCodec.writeDate(out, record.getBorrowDate());
+        RecordCodec.writeDate(out, record.getDueDate());
+        RecordCodec.writeDate(out, record.getReturnDate());
+        out.writeDouble(record.getFine());
+        out.writeDouble(record.getAccruedFine());
+    }
+
+    // The book item is null when the copy is no longer in the catalog
+    private static BorrowRecord decodeLoan(DataInputStream in, User user, LibraryRepository books)
+            throws IOException {
+        String id = in.readUTF();
+        CompactIdSequence.RECORD_IDS.observe(id);
+        BookItem item = books.getBookItemByBarcode(in.readUTF());
+        LocalDate borrowDate = RecordCodec.readDate(in);
+        LocalDate dueDate = RecordCodec.readDate(in);
+        LocalDate returnDate = RecordCodec.readDate(in);
+        BorrowRecord record = new BorrowRecord(id, item, user, borrowDate, dueDate, returnDate, in.readDouble());
+        record.setAccruedFine(in.readDouble());
+        return record;
+    }
+
+    private static User decodeLegacy(byte[] value, LibraryRepository books) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        User user = new User(in.readUTF(), RecordCodec.readString(in), RecordCodec.readString(in),
+                MembershipType.values()[in.readByte()]);
+        long carriedFines = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            BorrowRecord record = decodeLoan(in, user, books);
+            if (record.getBookItem() != null) {
+                user.addBorrowRecord(record);
+            } else {
+                carriedFines += FineLedger.toPaise(record.getReturnDate() != null
+                        ? record.getFine() : record.getAccruedFine());
+            }
+        }
+        user.restoreCarriedFines(carriedFines);
+        return user;
+    }
+}
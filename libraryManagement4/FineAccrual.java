@@ -0,0 +1,172 @@
+package libraryManagement4;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// Outstanding fines per user: what their open overdue loans have accrued so
+// far plus fines charged on return, less payments. Balances are kept in paise
+// so the nightly deltas add up exactly. Everything a balance is made of is
+// saved with the user (accruals and fines on the loans, archived fines less
+// payments as carried fines), so the ledger is rebuilt from the users on open
+// and a balance never depends on two writes landing together.
+class FineLedger {
+    private final Map<String, AtomicLong> balances = new ConcurrentHashMap<>();
+
+    // Sets an open loan's accrual to amount and returns the change in paise,
+    // to be applied with adjust(). Re-running for the same day changes nothing;
+    // a loan returned meanwhile is left to settle().
+    long accrue(BorrowRecord record, double amount) {
+        synchronized (record) {
+            if (record.getReturnDate() != null) {
+                return 0;
+            }
+            long delta = toPaise(amount) - toPaise(record.getAccruedFine());
+            record.setAccruedFine(amount);
+            return delta;
+        }
+    }
+
+    // A returned loan: its accrual is replaced by the fine actually charged
+    public void settle(BorrowRecord record, double fine) {
+        long delta;
+        synchronized (record) {
+            delta = toPaise(fine) - toPaise(record.getAccruedFine());
+            record.setAccruedFine(0);
+        }
+        adjust(record.getUser().getId(), delta);
+    }
+
+    // Sets the user's balance from their saved state
+    public void restore(User user) {
+        long balance = user.getCarriedFines();
+        for (BorrowRecord record : user.getBorrowRecords()) {
+            balance += toPaise(record.getReturnDate() != null ? record.getFine() : record.getAccruedFine());
+        }
+        balances.put(user.getId(), new AtomicLong(balance));
+    }
+
+    public void recordPayment(String userId, double amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Payment must be positive");
+        }
+        adjust(userId, -toPaise(amount));
+    }
+
+    public double getOutstanding(String userId) {
+        AtomicLong balance = balances.get(userId);
+        return balance != null ? balance.get() / 100.0 : 0.0;
+    }
+
+    void adjust(String userId, long paise) {
+        if (paise != 0) {
+            balances.computeIfAbsent(userId, id -> new AtomicLong()).addAndGet(paise);
+        }
+    }
+
+    static long toPaise(double amount) {
+        return Math.round(amount * 100);
+    }
+}
+
+class FineAccrualReport {
+    private final int loansVisited;
+    private final int loansChanged;
+    private final double totalAccrued;
+    private final long elapsedMillis;
+
+    FineAccrualReport(int loansVisited, int loansChanged, double totalAccrued, long elapsedMillis) {
+        this.loansVisited = loansVisited;
+        this.loansChanged = loansChanged;
+        this.totalAccrued = totalAccrued;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getLoansVisited() {
+        return loansVisited;
+    }
+
+    public int getLoansChanged() {
+        return loansChanged;
+    }
+
+    // Sum of the current accruals of the loans visited
+    public double getTotalAccrued() {
+        return totalAccrued;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("loans=%d changed=%d accrued=%.2f elapsed=%dms",
+                loansVisited, loansChanged, totalAccrued, elapsedMillis);
+    }
+}
+
+// Nightly job: brings the accrued fine of every overdue open loan up to date.
+// Loans come from the due-date index, so only overdue ones are visited. They
+// are processed in parallel chunks; each chunk sums its changes per user,
+// touches the shared ledger once per user and then hands each changed loan
+// to onAccrued (to be saved).
+class FineAccrualJob {
+    static final int CHUNK_SIZE = 8192;
+
+    private final FineLedger ledger;
+    private final FineCalculator calculator;
+    private final Consumer<BorrowRecord> onAccrued;
+
+    public FineAccrualJob(FineLedger ledger, FineCalculator calculator) {
+        this(ledger, calculator, record -> {
+        });
+    }
+
+    public FineAccrualJob(FineLedger ledger, FineCalculator calculator, Consumer<BorrowRecord> onAccrued) {
+        this.ledger = ledger;
+        this.calculator = calculator;
+        this.onAccrued = onAccrued;
+    }
+
+    public FineAccrualReport run(List<BorrowRecord> overdue, LocalDate asOf) {
+        long start = System.nanoTime();
+        LongAdder changed = new LongAdder();
+        LongAdder accrued = new LongAdder();
+        int chunks = (overdue.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * CHUNK_SIZE;
+            accrueChunk(overdue.subList(from, Math.min(from + CHUNK_SIZE, overdue.size())), asOf, changed, accrued);
+        });
+        return new FineAccrualReport(overdue.size(), changed.intValue(), accrued.sum() / 100.0,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void accrueChunk(List<BorrowRecord> chunk, LocalDate asOf, LongAdder changed, LongAdder accrued) {
+        Map<User, long[]> deltas = new HashMap<>();
+        List<BorrowRecord> accruedRecords = new ArrayList<>();
+        long chunkAccrued = 0;
+        int chunkChanged = 0;
+        for (BorrowRecord record : chunk) {
+            double fine = calculator.calculateFine(record, asOf);
+            long delta = ledger.accrue(record, fine);
+            if (delta != 0) {
+                deltas.computeIfAbsent(record.getUser(), user -> new long[1])[0] += delta;
+                accruedRecords.add(record);
+                chunkChanged++;
+            }
+            chunkAccrued += FineLedger.toPaise(record.getAccruedFine());
+        }
+        deltas.forEach((user, delta) -> ledger.adjust(user.getId(), delta[0]));
+        accruedRecords.forEach(onAccrued);
+        changed.add(chunkChanged);
+        accrued.add(chunkAccrued);
+    }
+}
@@ -0,0 +1,166 @@
+package libraryManagement4;
+
+import java.util.Arrays;
+import java.util.List;
+
+// BK-tree over a term dictionary: finds every term within edit distance k by
+// descending only into children whose edge distance lies in [d - k, d + k]
+// (triangle inequality), instead of comparing the query with every term.
+class BkTree {
+    private static final class Node {
+        final String term;
+        final int distanceToParent;
+        Node firstChild;
+        Node nextSibling;
+
+        Node(String term, int distanceToParent) {
+            this.term = term;
+            this.distanceToParent = distanceToParent;
+        }
+    }
+
+    interface Visitor {
+        void visit(String term, int distance);
+    }
+
+    private Node root;
+    private int size;
+
+    public void add(String term) {
+        if (root == null) {
+            root = new Node(term, 0);
+            size++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = Levenshtein.distance(term, node.term, Integer.MAX_VALUE);
+            if (d == 0) {
+                return;
+            }
+            Node child = node.firstChild;
+            while (child != null && child.distanceToParent != d) {
+                child = child.nextSibling;
+            }
+            if (child == null) {
+                Node added = new Node(term, d);
+                added.nextSibling = node.firstChild;
+                node.firstChild = added;
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    public void search(String query, int maxDistance, Visitor visitor) {
+        if (root == null) {
+            return;
+        }
+        // Explicit stack: a degenerate tree could be deep
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            int d = Levenshtein.distance(query, node.term, Integer.MAX_VALUE);
+            if (d <= maxDistance) {
+                visitor.visit(node.term, d);
+            }
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+                if (Math.abs(child.distanceToParent - d) <= maxDistance) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
+
+class Levenshtein {
+    // Edit distance, or limit + 1 as soon as it is known to exceed limit
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return limit + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] t = previous;
+            previous = current;
+            current = t;
+        }
+        return previous[b.length()];
+    }
+
+    // Typo budget by word length, like common search engines: none up to 2
+    // characters, 1 up to 5, 2 beyond
+    static int autoDistance(String term) {
+        if (term.length() <= 2) {
+            return 0;
+        }
+        return term.length() <= 5 ? 1 : 2;
+    }
+}
+
+// Strategy Pattern: typo-tolerant search, closest matches first
+class FuzzySearchStrategy implements IndexedSearchStrategy {
+    // Use Levenshtein.autoDistance per query word
+    static final int AUTO = -1;
+
+    private final InvertedIndex index;
+    private final BookField field;
+    private final int maxDistance;
+
+    public FuzzySearchStrategy(InvertedIndex index, BookField field) {
+        this(index, field, AUTO);
+    }
+
+    public FuzzySearchStrategy(InvertedIndex index, BookField field, int maxDistance) {
+        this.index = index;
+        this.field = field;
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public List<BookItem> search(String query) {
+        return index.searchFuzzy(field, query, maxDistance);
+    }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        List<String> terms = Tokenizer.tokens(query);
+        List<String> words = Tokenizer.tokens(field.valueOf(item.getBook()));
+        for (String term : terms) {
+            int k = maxDistance >= 0 ? maxDistance : Levenshtein.autoDistance(term);
+            boolean found = false;
+            for (int i = 0; i < words.size() && !found; i++) {
+                found = Levenshtein.distance(term, words.get(i), k) <= k;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return !terms.isEmpty();
+    }
+}
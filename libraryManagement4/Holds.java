@@ -0,0 +1,249 @@
+package libraryManagement4;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+enum HoldStatus {
+    WAITING, READY, FULFILLED, CANCELLED, EXPIRED
+}
+
+class Hold {
+    private final String id;
+    private final User user;
+    private final String isbn;
+    private final LocalDate placedDate;
+    private volatile HoldStatus status = HoldStatus.WAITING;
+    private volatile BookItem bookItem;
+    private volatile LocalDate pickupDeadline;
+    // Key in the expiry index while READY
+    private long expiryKey;
+
+    Hold(String id, User user, String isbn, LocalDate placedDate) {
+        this.id = id;
+        this.user = user;
+        this.isbn = isbn;
+        this.placedDate = placedDate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public LocalDate getPlacedDate() {
+        return placedDate;
+    }
+
+    public HoldStatus getStatus() {
+        return status;
+    }
+
+    // Copy set aside for this hold once READY
+    public BookItem getBookItem() {
+        return bookItem;
+    }
+
+    public LocalDate getPickupDeadline() {
+        return pickupDeadline;
+    }
+
+    void ready(BookItem item, LocalDate pickupDeadline, long expiryKey) {
+        this.bookItem = item;
+        this.pickupDeadline = pickupDeadline;
+        this.expiryKey = expiryKey;
+        this.status = HoldStatus.READY;
+    }
+
+    long getExpiryKey() {
+        return expiryKey;
+    }
+
+    void setStatus(HoldStatus status) {
+        this.status = status;
+    }
+}
+
+// FIFO holds on one title. Cancelled holds stay in the deque and are skipped
+// when they reach the head, so cancel is O(1) too.
+class HoldQueue {
+    final ArrayDeque<Hold> waiting = new ArrayDeque<>();
+    int waitingCount;
+
+    Hold pollWaiting() {
+        Hold hold;
+        while ((hold = waiting.poll()) != null) {
+            if (hold.getStatus() == HoldStatus.WAITING) {
+                waitingCount--;
+                return hold;
+            }
+        }
+        return null;
+    }
+}
+
+// Holds per title. Every status move of a copy involved in a hold happens
+// under that title's queue lock, so a return, a new hold and an expiry of the
+// same title cannot interleave: a copy is either handed to the head of the
+// queue (RESERVED) or shelved (AVAILABLE) with nobody waiting.
+class HoldManager {
+    static final int DEFAULT_PICKUP_DAYS = 3;
+
+    private final LibraryRepository repository;
+    private final int pickupDays;
+    private final Map<String, HoldQueue> queues = new ConcurrentHashMap<>();
+    // READY holds by barcode of the copy set aside
+    private final Map<String, Hold> ready = new ConcurrentHashMap<>();
+    // READY holds by (pickup deadline epoch day << 32 | sequence)
+    private final ConcurrentSkipListMap<Long, Hold> expiries = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public HoldManager(LibraryRepository repository) {
+        this(repository, DEFAULT_PICKUP_DAYS);
+    }
+
+    public HoldManager(LibraryRepository repository, int pickupDays) {
+        this.repository = repository;
+        this.pickupDays = pickupDays;
+    }
+
+    // Joins the title's queue, or sets a shelf copy aside right away
+    public Hold place(User user, String isbn, LocalDate today) {
+        Hold hold = new Hold("H" + sequence.incrementAndGet(), user, isbn, today);
+        HoldQueue queue = queueOf(isbn);
+        synchronized (queue) {
+            if (queue.waitingCount == 0) {
+                BookItem copy;
+                while ((copy = repository.findAvailableCopy(isbn)) != null) {
+                    if (copy.tryTransition(BookStatus.AVAILABLE, BookStatus.RESERVED)) {
+                        assign(hold, copy, today);
+                        return hold;
+                    }
+                }
+            }
+            queue.waiting.add(hold);
+            queue.waitingCount++;
+        }
+        return hold;
+    }
+
+    public boolean cancel(Hold hold, LocalDate today) {
+        HoldQueue queue = queueOf(hold.getIsbn());
+        synchronized (queue) {
+            if (hold.getStatus() == HoldStatus.WAITING) {
+                hold.setStatus(HoldStatus.CANCELLED);
+                queue.waitingCount--;
+                return true;
+            }
+            if (hold.getStatus() == HoldStatus.READY && unassign(hold)) {
+                hold.setStatus(HoldStatus.CANCELLED);
+                handOver(queue, hold.getBookItem(), BookStatus.RESERVED, today);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // A copy leaves the from status (BORROWED on return): the head of the queue
+    // gets it, otherwise it goes back on the shelf. Returns the hold served or null.
+    public Hold release(BookItem item, BookStatus from, LocalDate today) {
+        HoldQueue queue = queueOf(item.getBook().getIsbn());
+        synchronized (queue) {
+            return handOver(queue, item, from, today);
+        }
+    }
+
+    // Lends a RESERVED copy to the patron it was set aside for
+    public boolean pickUp(BookItem item, User user, LocalDate dueDate) {
+        HoldQueue queue = queueOf(item.getBook().getIsbn());
+        synchronized (queue) {
+            Hold hold = ready.get(item.getBarcode());
+            if (hold == null || hold.getUser() != user || !item.tryBorrowReserved(dueDate)) {
+                return false;
+            }
+            unassign(hold);
+            hold.setStatus(HoldStatus.FULFILLED);
+            return true;
+        }
+    }
+
+    // Lapses every READY hold whose pickup deadline is before today and passes
+    // its copy on; reads only the expired range of the deadline index
+    public List<Hold> expire(LocalDate today) {
+        List<Hold> expired = new ArrayList<>();
+        for (Hold hold : new ArrayList<>(expiries.headMap(keyOf(today)).values())) {
+            HoldQueue queue = queueOf(hold.getIsbn());
+            synchronized (queue) {
+                if (hold.getStatus() == HoldStatus.READY && unassign(hold)) {
+                    hold.setStatus(HoldStatus.EXPIRED);
+                    expired.add(hold);
+                    handOver(queue, hold.getBookItem(), BookStatus.RESERVED, today);
+                }
+            }
+        }
+        return expired;
+    }
+
+    public int getQueueLength(String isbn) {
+        HoldQueue queue = queues.get(isbn);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.waitingCount;
+        }
+    }
+
+    // Caller holds the queue lock
+    private Hold handOver(HoldQueue queue, BookItem item, BookStatus from, LocalDate today) {
+        Hold next = queue.pollWaiting();
+        if (next == null) {
+            item.tryTransition(from, BookStatus.AVAILABLE);
+            return null;
+        }
+        if (!item.tryTransition(from, BookStatus.RESERVED)) {
+            // Copy changed under us (e.g. marked LOST): the hold keeps its place
+            queue.waiting.addFirst(next);
+            queue.waitingCount++;
+            return null;
+        }
+        assign(next, item, today);
+        return next;
+    }
+
+    private void assign(Hold hold, BookItem item, LocalDate today) {
+        LocalDate deadline = today.plusDays(pickupDays);
+        long key = keyOf(deadline) | (sequence.incrementAndGet() & 0xFFFFFFFFL);
+        hold.ready(item, deadline, key);
+        ready.put(item.getBarcode(), hold);
+        expiries.put(key, hold);
+    }
+
+    private boolean unassign(Hold hold) {
+        if (!ready.remove(hold.getBookItem().getBarcode(), hold)) {
+            return false;
+        }
+        expiries.remove(hold.getExpiryKey());
+        return true;
+    }
+
+    private HoldQueue queueOf(String isbn) {
+        return queues.computeIfAbsent(isbn, i -> new HoldQueue());
+    }
+
+    private static long keyOf(LocalDate date) {
+        return date.toEpochDay() << 32;
+    }
+}
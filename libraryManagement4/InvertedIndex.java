@@ -0,0 +1,510 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Searchable Book fields
+enum BookField {
+    TITLE, AUTHOR, CATEGORY;
+
+    String valueOf(Book book) {
+        switch (this) {
+            case TITLE:
+                return book.getTitle();
+            case AUTHOR:
+                return book.getAuthor();
+            default:
+                return book.getCategory();
+        }
+    }
+}
+
+// Sorted, growable list of ids (catalog or title ids, no boxing), with how often the term
+// occurs in each (saturating at 255, far past where BM25 stops caring)
+class PostingList {
+    private int[] ids = new int[4];
+    private byte[] frequencies = new byte[4];
+    private int size;
+
+    // Ids are assigned increasingly, so this is almost always an append;
+    // adding an id again counts another occurrence
+    void add(int id) {
+        if (size > 0 && ids[size - 1] >= id) {
+            int pos = ids[size - 1] == id ? size - 1 : Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                if (frequencies[pos] != (byte) 255) {
+                    frequencies[pos]++;
+                }
+                return;
+            }
+            insertAt(-pos - 1, id);
+            return;
+        }
+        insertAt(size, id);
+    }
+
+    boolean remove(int id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+        System.arraycopy(frequencies, pos + 1, frequencies, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int i) {
+        return ids[i];
+    }
+
+    int frequency(int i) {
+        return frequencies[i] & 0xFF;
+    }
+
+    // Position of the first id >= id
+    int lowerBound(int id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    // Ids from fromId on that are in every list and accepted, in order, until
+    // out is full; returns how many were written. Walks the shortest list and
+    // binary-searches the others, stopping early, so a page of a broad query
+    // costs the page, not the whole intersection.
+    static int intersect(PostingList[] lists, int fromId, IntPredicate accept, int[] out) {
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+        PostingList shortest = lists[0];
+        int n = 0;
+        for (int i = shortest.lowerBound(fromId); i < shortest.size() && n < out.length; i++) {
+            int id = shortest.get(i);
+            boolean inAll = true;
+            for (int l = 1; l < lists.length && inAll; l++) {
+                inAll = lists[l].contains(id);
+            }
+            if (inAll && accept.test(id)) {
+                out[n++] = id;
+            }
+        }
+        return n;
+    }
+
+    private void insertAt(int pos, int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        System.arraycopy(frequencies, pos, frequencies, pos + 1, size - pos);
+        ids[pos] = id;
+        frequencies[pos] = 1;
+        size++;
+    }
+}
+
+// Lowercased letter/digit runs; shared by every text index so they agree on terms
+class Tokenizer {
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            } else if (current.length() > 0) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
+
+// Word-level inverted index over Book title/author/category.
+// A query costs the size of its shortest posting list, not the catalog size.
+class InvertedIndex extends TextIndex {
+    static final double BM25_K1 = 1.2;
+    static final double BM25_B = 0.75;
+
+    private final List<Map<String, PostingList>> postings = new ArrayList<>();
+    // Ranking scores titles, not copies: one document per ISBN, indexed with
+    // the field values of its latest copy and dropped with its last copy
+    private final Map<String, Integer> titleIds = new HashMap<>();
+    private final List<Map<String, PostingList>> titlePostings = new ArrayList<>();
+    // Catalog ids of each title's copies, by title id
+    private PostingList[] titleCopies = new PostingList[16];
+    private String[][] titleValues = new String[16][];
+    // Words per field by title id, and their sums, for BM25 length normalization
+    private short[][] titleLengths = new short[FIELDS.length][16];
+    private final long[] totalTitleLengths = new long[FIELDS.length];
+    private int liveTitles;
+    // Every term ever indexed per field, for typo-tolerant lookups. Terms whose
+    // posting list emptied stay in the tree and are skipped at query time.
+    private final List<BkTree> dictionaries = new ArrayList<>();
+
+    public InvertedIndex() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            postings.add(new HashMap<>());
+            titlePostings.add(new HashMap<>());
+            dictionaries.add(new BkTree());
+        }
+    }
+
+    // Items whose field contains every query word, in catalog order
+    public List<BookItem> search(BookField field, String query) {
+        return search(field, query, 0, Integer.MAX_VALUE);
+    }
+
+    // The first max of those with catalog id >= fromId
+    public List<BookItem> search(BookField field, String query, int fromId, int max) {
+        lock.readLock().lock();
+        try {
+            return toItems(match(field, query, fromId, max));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Items matching every query word within an edit distance, closest first
+    // (ties in catalog order). maxDistance < 0 picks a budget per word length.
+    public List<BookItem> searchFuzzy(BookField field, String query, int maxDistance) {
+        List<String> terms = Tokenizer.tokens(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            int[] ids = null;
+            int[] distances = null;
+            for (String term : terms) {
+                int k = maxDistance >= 0 ? maxDistance : Levenshtein.autoDistance(term);
+                long[] hits = fuzzyHits(field.ordinal(), term, k);
+                if (ids == null) {
+                    ids = new int[hits.length];
+                    distances = new int[hits.length];
+                    for (int i = 0; i < hits.length; i++) {
+                        ids[i] = (int) (hits[i] >>> 8);
+                        distances[i] = (int) (hits[i] & 0xFF);
+                    }
+                } else {
+                    // Merge-intersect with the previous words, summing distances
+                    int n = 0;
+                    int h = 0;
+                    for (int i = 0; i < ids.length && h < hits.length; ) {
+                        int hitId = (int) (hits[h] >>> 8);
+                        if (ids[i] < hitId) {
+                            i++;
+                        } else if (ids[i] > hitId) {
+                            h++;
+                        } else {
+                            ids[n] = ids[i];
+                            distances[n++] = distances[i++] + (int) (hits[h++] & 0xFF);
+                        }
+                    }
+                    ids = Arrays.copyOf(ids, n);
+                    distances = Arrays.copyOf(distances, n);
+                }
+                if (ids.length == 0) {
+                    break;
+                }
+            }
+            long[] ranked = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ranked[i] = ((long) distances[i] << 32) | ids[i];
+            }
+            Arrays.sort(ranked);
+            int[] ordered = new int[ranked.length];
+            for (int i = 0; i < ranked.length; i++) {
+                ordered[i] = (int) ranked[i];
+            }
+            return toItems(ordered);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Top k titles by BM25, one copy each, summed over fields with each
+    // field's score scaled by weights[field ordinal]; any query word may
+    // match. Titles with a copy AVAILABLE score (1 + availableBoost) times
+    // higher, and that copy is the one returned; otherwise the first copy.
+    // Best first, ties in the order titles were first indexed. The posting
+    // lists of the query words are walked together in title id order, so a
+    // query costs the postings it reads, and a bounded heap keeps the best k.
+    public List<BookItem> searchRanked(String query, int k, double[] weights, double availableBoost) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokens(query)));
+        lock.readLock().lock();
+        try {
+            if (terms.isEmpty() || k < 1 || liveTitles == 0) {
+                return new ArrayList<>();
+            }
+            PostingList[] lists = new PostingList[FIELDS.length * terms.size()];
+            float[] listWeights = new float[lists.length];
+            int[] listFields = new int[lists.length];
+            // k1 * (1 - b + b * length / avgLength), split into constant and per-word parts
+            float base = (float) (BM25_K1 * (1 - BM25_B));
+            float[] perWord = new float[FIELDS.length];
+            int n = 0;
+            for (BookField field : FIELDS) {
+                int f = field.ordinal();
+                if (weights[f] <= 0 || totalTitleLengths[f] == 0) {
+                    continue;
+                }
+                perWord[f] = (float) (BM25_K1 * BM25_B * liveTitles / totalTitleLengths[f]);
+                for (String term : terms) {
+                    PostingList list = titlePostings.get(f).get(term);
+                    if (list == null) {
+                        continue;
+                    }
+                    double idf = Math.log(1 + (liveTitles - list.size() + 0.5) / (list.size() + 0.5));
+                    lists[n] = list;
+                    listWeights[n] = (float) (weights[f] * idf * (BM25_K1 + 1));
+                    listFields[n++] = f;
+                }
+            }
+            TopK top = new TopK(Math.min(k, liveTitles));
+            float boost = (float) (1 + availableBoost);
+            int[] cursors = new int[n];
+            while (true) {
+                int title = Integer.MAX_VALUE;
+                for (int l = 0; l < n; l++) {
+                    if (cursors[l] < lists[l].size()) {
+                        title = Math.min(title, lists[l].get(cursors[l]));
+                    }
+                }
+                if (title == Integer.MAX_VALUE) {
+                    break;
+                }
+                float score = 0;
+                for (int l = 0; l < n; l++) {
+                    int c = cursors[l];
+                    if (c < lists[l].size() && lists[l].get(c) == title) {
+                        int tf = lists[l].frequency(c);
+                        int f = listFields[l];
+                        score += listWeights[l] * tf / (tf + base + perWord[f] * titleLengths[f][title]);
+                        cursors[l] = c + 1;
+                    }
+                }
+                // Copies are looked at only for titles that could make it even boosted
+                if (!top.admits(score * boost, title)) {
+                    continue;
+                }
+                if (availableBoost > 0 && availableCopy(title) >= 0) {
+                    score *= boost;
+                }
+                top.offer(score, title);
+            }
+            int[] titles = top.drain();
+            int[] ids = new int[titles.length];
+            for (int i = 0; i < titles.length; i++) {
+                int available = availableCopy(titles[i]);
+                ids[i] = available >= 0 ? available : titleCopies[titles[i]].get(0);
+            }
+            return toItems(ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Catalog id of an AVAILABLE copy of the title, or -1
+    private int availableCopy(int title) {
+        PostingList copies = titleCopies[title];
+        for (int i = 0; i < copies.size(); i++) {
+            int id = copies.get(i);
+            if (items[id].getStatus() == BookStatus.AVAILABLE) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    // Ids whose field has a term within k of term, packed as (id << 8 | best
+    // distance), sorted by id with one entry per id
+    private long[] fuzzyHits(int field, String term, int k) {
+        Map<String, PostingList> fieldPostings = postings.get(field);
+        long[][] collected = { new long[16] };
+        int[] count = { 0 };
+        dictionaries.get(field).search(term, Math.min(k, 255), (match, distance) -> {
+            PostingList list = fieldPostings.get(match);
+            if (list == null) {
+                return;
+            }
+            for (int i = 0; i < list.size(); i++) {
+                if (count[0] == collected[0].length) {
+                    collected[0] = Arrays.copyOf(collected[0], count[0] * 2);
+                }
+                collected[0][count[0]++] = ((long) list.get(i) << 8) | distance;
+            }
+        });
+        long[] hits = collected[0];
+        Arrays.sort(hits, 0, count[0]);
+        int n = 0;
+        for (int i = 0; i < count[0]; i++) {
+            // Sorted, so the first entry per id carries its smallest distance
+            if (n == 0 || (hits[n - 1] >>> 8) != (hits[i] >>> 8)) {
+                hits[n++] = hits[i];
+            }
+        }
+        return Arrays.copyOf(hits, n);
+    }
+
+    private int[] match(BookField field, String query, int fromId, int max) {
+        List<String> terms = Tokenizer.tokens(query);
+        if (terms.isEmpty()) {
+            return new int[0];
+        }
+        Map<String, PostingList> fieldPostings = postings.get(field.ordinal());
+        PostingList[] lists = new PostingList[terms.size()];
+        int bound = max;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = fieldPostings.get(terms.get(i));
+            if (lists[i] == null) {
+                return new int[0];
+            }
+            bound = Math.min(bound, lists[i].size());
+        }
+        int[] ids = new int[bound];
+        return Arrays.copyOf(ids, PostingList.intersect(lists, fromId, id -> true, ids));
+    }
+
+    @Override
+    protected void addDocument(int id, String[] values) {
+        for (BookField field : FIELDS) {
+            for (String term : Tokenizer.tokens(values[field.ordinal()])) {
+                PostingList list = postings.get(field.ordinal()).get(term);
+                if (list == null) {
+                    list = new PostingList();
+                    postings.get(field.ordinal()).put(term, list);
+                    dictionaries.get(field.ordinal()).add(term);
+                }
+                list.add(id);
+            }
+        }
+        addCopy(id, values);
+    }
+
+    @Override
+    protected void removeDocument(int id, String[] values) {
+        for (BookField field : FIELDS) {
+            Map<String, PostingList> fieldPostings = postings.get(field.ordinal());
+            for (String term : Tokenizer.tokens(values[field.ordinal()])) {
+                PostingList list = fieldPostings.get(term);
+                if (list != null && list.remove(id) && list.size() == 0) {
+                    fieldPostings.remove(term);
+                }
+            }
+        }
+        removeCopy(id);
+    }
+
+    private void addCopy(int id, String[] values) {
+        String isbn = items[id].getBook().getIsbn();
+        Integer title = titleIds.get(isbn);
+        if (title == null) {
+            title = titleIds.size();
+            titleIds.put(isbn, title);
+            if (title == titleCopies.length) {
+                int capacity = title * 2;
+                titleCopies = Arrays.copyOf(titleCopies, capacity);
+                titleValues = Arrays.copyOf(titleValues, capacity);
+                for (int f = 0; f < FIELDS.length; f++) {
+                    titleLengths[f] = Arrays.copyOf(titleLengths[f], capacity);
+                }
+            }
+            titleCopies[title] = new PostingList();
+        }
+        if (titleCopies[title].size() == 0) {
+            addTitle(title, values);
+            liveTitles++;
+        } else if (!Arrays.equals(titleValues[title], values)) {
+            removeTitle(title);
+            addTitle(title, values);
+        }
+        titleCopies[title].add(id);
+    }
+
+    private void removeCopy(int id) {
+        int title = titleIds.get(items[id].getBook().getIsbn());
+        PostingList copies = titleCopies[title];
+        if (copies.remove(id) && copies.size() == 0) {
+            removeTitle(title);
+            liveTitles--;
+        }
+    }
+
+    private void addTitle(int title, String[] values) {
+        for (BookField field : FIELDS) {
+            int f = field.ordinal();
+            List<String> terms = Tokenizer.tokens(values[f]);
+            short length = (short) Math.min(terms.size(), Short.MAX_VALUE);
+            titleLengths[f][title] = length;
+            totalTitleLengths[f] += length;
+            for (String term : terms) {
+                titlePostings.get(f).computeIfAbsent(term, t -> new PostingList()).add(title);
+            }
+        }
+        titleValues[title] = values;
+    }
+
+    private void removeTitle(int title) {
+        for (BookField field : FIELDS) {
+            int f = field.ordinal();
+            totalTitleLengths[f] -= titleLengths[f][title];
+            titleLengths[f][title] = 0;
+            Map<String, PostingList> fieldPostings = titlePostings.get(f);
+            for (String term : Tokenizer.tokens(titleValues[title][f])) {
+                PostingList list = fieldPostings.get(term);
+                if (list != null && list.remove(title) && list.size() == 0) {
+                    fieldPostings.remove(term);
+                }
+            }
+        }
+        titleValues[title] = null;
+    }
+}
+
+// Strategy Pattern: same interface as the scan strategies, answered by the index
+class InvertedIndexSearchStrategy implements IndexedSearchStrategy {
+    private final InvertedIndex index;
+    private final BookField field;
+
+    public InvertedIndexSearchStrategy(InvertedIndex index, BookField field) {
+        this.index = index;
+        this.field = field;
+    }
+
+    @Override
+    public List<BookItem> search(String query) {
+        return index.search(field, query);
+    }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        List<String> terms = Tokenizer.tokens(query);
+        return !terms.isEmpty() && Tokenizer.tokens(field.valueOf(item.getBook())).containsAll(terms);
+    }
+
+    // Reads one item past the page to know where the next one starts
+    @Override
+    public SearchPage searchPage(String query, int limit, String pageToken) {
+        return SearchPage.ofCatalogOrder(index.search(field, query, SearchPage.position(pageToken), limit + 1), limit);
+    }
+}
@@ -1,8 +1,16 @@
 package libraryManagement4;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 //uses Repository + Factory + Observer design pattern
 // Enums
@@ -16,11 +24,17 @@ enum MembershipType {
 
 // Core Domain Models
 class Book {
+    // Author, category and publisher repeat across millions of books, so each
+    // is kept once in a shared dictionary and books hold its id
+    static final StringDictionary AUTHORS = new StringDictionary();
+    static final StringDictionary CATEGORIES = new StringDictionary();
+    static final StringDictionary PUBLISHERS = new StringDictionary();
+
     private final String isbn;
     private String title;
-    private String author;
-    private String category;
-    private String publisher;
+    private int author;
+    private int category;
+    private int publisher = StringDictionary.NULL_ID;
     private int publicationYear;
 
     public Book(String isbn, String title, String author, String category) {
@@ -29,8 +43,8 @@ class Book {
         }
         this.isbn = isbn;
         this.title = title;
-        this.author = author;
-        this.category = category;
+        this.author = AUTHORS.intern(author);
+        this.category = CATEGORIES.intern(category);
     }
 
     // Getters
@@ -43,15 +57,15 @@ class Book {
     }
 
     public String getAuthor() {
-        return author;
+        return AUTHORS.resolve(author);
     }
 
     public String getCategory() {
-        return category;
+        return CATEGORIES.resolve(category);
     }
 
     public String getPublisher() {
-        return publisher;
+        return PUBLISHERS.resolve(publisher);
     }
 
     public int getPublicationYear() {
@@ -64,15 +78,15 @@ class Book {
     }
 
     public void setAuthor(String author) {
-        this.author = author;
+        this.author = AUTHORS.intern(author);
     }
 
     public void setCategory(String category) {
-        this.category = category;
+        this.category = CATEGORIES.intern(category);
     }
 
     public void setPublisher(String publisher) {
-        this.publisher = publisher;
+        this.publisher = PUBLISHERS.intern(publisher);
     }
 
     public void setPublicationYear(int year) {
@@ -98,10 +112,15 @@ class Book {
 class BookItem {
     private final String barcode;
     private final Book book;
-    private BookStatus status;
+    // Compare-and-set, so two terminals cannot both take the same copy
+    private final AtomicReference<BookStatus> status = new AtomicReference<>(BookStatus.AVAILABLE);
     private String rack;
-    private LocalDate borrowedDate;
-    private LocalDate dueDate;
+    private volatile LocalDate borrowedDate;
+    private volatile LocalDate dueDate;
+    // Dense id assigned by the repository; indexes use it for primitive postings
+    private int catalogId = -1;
+    // Set by the repository holding this item, to keep its status index current
+    private volatile StatusListener statusListener;
 
     public BookItem(String barcode, Book book, String rack) {
         if (barcode == null || barcode.trim().isEmpty()) {
@@ -110,7 +129,6 @@ class BookItem {
         this.barcode = barcode;
         this.book = book;
         this.rack = rack;
-        this.status = BookStatus.AVAILABLE;
     }
 
     public String getBarcode() {
@@ -122,7 +140,7 @@ class BookItem {
     }
 
     public BookStatus getStatus() {
-        return status;
+        return status.get();
     }
 
     public String getRack() {
@@ -137,8 +155,28 @@ class BookItem {
         return dueDate;
     }
 
+    public int getCatalogId() {
+        return catalogId;
+    }
+
+    void setCatalogId(int catalogId) {
+        this.catalogId = catalogId;
+    }
+
+    // Loads persisted state; only before the item is added to a repository
+    void restore(BookStatus status, LocalDate borrowedDate, LocalDate dueDate) {
+        this.status.set(status);
+        this.borrowedDate = borrowedDate;
+        this.dueDate = dueDate;
+    }
+
+    void setStatusListener(StatusListener listener) {
+        this.statusListener = listener;
+    }
+
     public void setStatus(BookStatus status) {
-        this.status = status;
+        this.status.set(status);
+        notifyStatusChanged();
     }
 
     public void setRack(String rack) {
@@ -146,15 +184,60 @@ class BookItem {
     }
 
     public void borrow(LocalDate dueDate) {
-        this.status = BookStatus.BORROWED;
+        this.status.set(BookStatus.BORROWED);
+        this.borrowedDate = LocalDate.now();
+        this.dueDate = dueDate;
+        notifyStatusChanged();
+    }
+
+    // AVAILABLE -> BORROWED; false if another caller got there first
+    public boolean tryBorrow(LocalDate dueDate) {
+        return tryBorrow(BookStatus.AVAILABLE, dueDate);
+    }
+
+    // RESERVED -> BORROWED, for the patron whose hold set this copy aside
+    boolean tryBorrowReserved(LocalDate dueDate) {
+        return tryBorrow(BookStatus.RESERVED, dueDate);
+    }
+
+    private boolean tryBorrow(BookStatus from, LocalDate dueDate) {
+        if (!status.compareAndSet(from, BookStatus.BORROWED)) {
+            return false;
+        }
         this.borrowedDate = LocalDate.now();
         this.dueDate = dueDate;
+        notifyStatusChanged();
+        return true;
+    }
+
+    // Any move that does not lend the copy out (shelve, reserve, release)
+    boolean tryTransition(BookStatus from, BookStatus to) {
+        if (!status.compareAndSet(from, to)) {
+            return false;
+        }
+        this.borrowedDate = null;
+        this.dueDate = null;
+        notifyStatusChanged();
+        return true;
     }
 
     public void returnItem() {
-        this.status = BookStatus.AVAILABLE;
+        this.status.set(BookStatus.AVAILABLE);
         this.borrowedDate = null;
         this.dueDate = null;
+        notifyStatusChanged();
+    }
+
+    // BORROWED -> AVAILABLE; false if the copy was not out on loan
+    public boolean tryReturn() {
+        return tryTransition(BookStatus.BORROWED, BookStatus.AVAILABLE);
+    }
+
+    private void notifyStatusChanged() {
+        StatusListener listener = statusListener;
+        if (listener != null) {
+            listener.onStatusChanged(this);
+        }
     }
 
     public boolean isOverdue() {
@@ -167,8 +250,15 @@ class User {
     private String name;
     private String email;
     private MembershipType membershipType;
-    private final List<BorrowRecord> borrowRecords;
+    private final BorrowHistory borrowHistory;
+    // Open loans by barcode; its size is the active-borrow count
+    private final Map<String, BorrowRecord> activeBorrows;
+    // Active loans plus checkouts in flight; never exceeds maxBorrowLimit
+    private final AtomicInteger claimedSlots = new AtomicInteger();
     private int maxBorrowLimit;
+    // Fines of archived loans less payments, in paise; with the fines on the
+    // loans still in the history this is the outstanding balance
+    private long carriedFines;
 
     public User(String id, String name, String email, MembershipType type) {
         if (id == null || id.trim().isEmpty()) {
@@ -178,7 +268,8 @@ class User {
         this.name = name;
         this.email = email;
         this.membershipType = type;
-        this.borrowRecords = new ArrayList<>();
+        this.borrowHistory = new BorrowHistory();
+        this.activeBorrows = new LinkedHashMap<>();
         this.maxBorrowLimit = calculateBorrowLimit(type);
     }
 
@@ -212,7 +303,7 @@ class User {
     }
 
     public List<BorrowRecord> getBorrowRecords() {
-        return new ArrayList<>(borrowRecords);
+        return borrowHistory.toList();
     }
 
     public int getMaxBorrowLimit() {
@@ -227,18 +318,84 @@ class User {
         this.email = email;
     }
 
-    public List<BorrowRecord> getActiveBorrows() {
-        return borrowRecords.stream()
-                .filter(r -> r.getReturnDate() == null)
-                .collect(Collectors.toList());
+    public synchronized List<BorrowRecord> getActiveBorrows() {
+        return new ArrayList<>(activeBorrows.values());
+    }
+
+    public synchronized int getActiveBorrowCount() {
+        return activeBorrows.size();
+    }
+
+    public synchronized BorrowRecord getActiveBorrow(String barcode) {
+        return activeBorrows.get(barcode);
     }
 
     public boolean canBorrow() {
-        return getActiveBorrows().size() < maxBorrowLimit;
+        return claimedSlots.get() < maxBorrowLimit;
+    }
+
+    // Claims one borrow slot up front, so concurrent checkouts cannot overshoot
+    // the limit; pair with commitBorrow or releaseBorrowSlot
+    public boolean tryReserveBorrow() {
+        while (true) {
+            int claimed = claimedSlots.get();
+            if (claimed >= maxBorrowLimit) {
+                return false;
+            }
+            if (claimedSlots.compareAndSet(claimed, claimed + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void releaseBorrowSlot() {
+        claimedSlots.decrementAndGet();
+    }
+
+    // Records a loan whose slot was taken by tryReserveBorrow
+    public synchronized void commitBorrow(BorrowRecord record) {
+        borrowHistory.append(record);
+        activeBorrows.put(record.getBookItem().getBarcode(), record);
+    }
+
+    // Drops completed loans that were moved to the cold history store; their
+    // fines stay in the balance as carried fines
+    public synchronized int removeArchivedRecords(Set<BorrowRecord> records) {
+        for (BorrowRecord record : records) {
+            carriedFines += FineLedger.toPaise(record.getFine());
+        }
+        return borrowHistory.removeAll(records);
+    }
+
+    public synchronized long getCarriedFines() {
+        return carriedFines;
+    }
+
+    public synchronized void recordFinePayment(long paise) {
+        carriedFines -= paise;
     }
 
-    public void addBorrowRecord(BorrowRecord record) {
-        borrowRecords.add(record);
+    // Loads persisted state; only before the user is added to a repository
+    void restoreCarriedFines(long paise) {
+        this.carriedFines = paise;
+    }
+
+    public synchronized void addBorrowRecord(BorrowRecord record) {
+        borrowHistory.append(record);
+        if (record.getReturnDate() == null) {
+            activeBorrows.put(record.getBookItem().getBarcode(), record);
+            claimedSlots.incrementAndGet();
+        }
+    }
+
+    // Closes the open loan for this barcode; the record stays in the history
+    public synchronized BorrowRecord completeBorrow(String barcode, LocalDate returnDate) {
+        BorrowRecord record = activeBorrows.remove(barcode);
+        if (record != null) {
+            record.setReturnDate(returnDate);
+            claimedSlots.decrementAndGet();
+        }
+        return record;
     }
 }
 
@@ -250,9 +407,11 @@ class BorrowRecord {
     private final LocalDate dueDate;
     private LocalDate returnDate;
     private double fine;
+    // Fine accrued so far while the loan is open and overdue (see FineLedger)
+    private double accruedFine;
 
     public BorrowRecord(BookItem bookItem, User user, LocalDate dueDate) {
-        this.id = UUID.randomUUID().toString();
+        this.id = CompactIdSequence.RECORD_IDS.next();
         this.bookItem = bookItem;
         this.user = user;
         this.borrowDate = LocalDate.now();
@@ -260,6 +419,18 @@ class BorrowRecord {
         this.fine = 0.0;
     }
 
+    // Rebuilds a persisted record
+    BorrowRecord(String id, BookItem bookItem, User user, LocalDate borrowDate, LocalDate dueDate,
+            LocalDate returnDate, double fine) {
+        this.id = id;
+        this.bookItem = bookItem;
+        this.user = user;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+        this.returnDate = returnDate;
+        this.fine = fine;
+    }
+
     public String getId() {
         return id;
     }
@@ -296,6 +467,14 @@ class BorrowRecord {
         this.fine = fine;
     }
 
+    public double getAccruedFine() {
+        return accruedFine;
+    }
+
+    void setAccruedFine(double accruedFine) {
+        this.accruedFine = accruedFine;
+    }
+
     public boolean isOverdue() {
         return returnDate == null && LocalDate.now().isAfter(dueDate);
     }
@@ -304,68 +483,236 @@ class BorrowRecord {
 // Strategy Pattern for Search
 interface SearchStrategy {
     List<BookItem> search(List<BookItem> items, String query);
+
+    // Whether one item matches, so callers can test items as they stream by
+    // (paged scans, cache invalidation) instead of building a list
+    default boolean matches(BookItem item, String query) {
+        return !search(Collections.singletonList(item), query).isEmpty();
+    }
+
+    // Whether results can change when only an item's status does
+    default boolean dependsOnStatus() {
+        return false;
+    }
+}
+
+// Strategies backed by an index answer from the index instead of a catalog copy
+interface IndexedSearchStrategy extends SearchStrategy {
+    List<BookItem> search(String query);
+
+    // search(items, query) ignores items here, so it cannot test one item.
+    // Conservative default: assume it would be in search(query).
+    @Override
+    default boolean matches(BookItem item, String query) {
+        return true;
+    }
+
+    @Override
+    default List<BookItem> search(List<BookItem> items, String query) {
+        return search(query);
+    }
+
+    // Up to limit results from the page token on. The default pages through
+    // the full result by offset; indexes with catalog-ordered results stop
+    // after the page instead.
+    default SearchPage searchPage(String query, int limit, String pageToken) {
+        return SearchPage.ofOffset(search(query), SearchPage.position(pageToken), limit);
+    }
 }
 
 class TitleSearchStrategy implements SearchStrategy {
     @Override
     public List<BookItem> search(List<BookItem> items, String query) {
         return items.stream()
-                .filter(item -> item.getBook().getTitle().toLowerCase()
-                        .contains(query.toLowerCase()))
+                .filter(item -> matches(item, query))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        return item.getBook().getTitle().toLowerCase().contains(query.toLowerCase());
+    }
 }
 
 class AuthorSearchStrategy implements SearchStrategy {
     @Override
     public List<BookItem> search(List<BookItem> items, String query) {
         return items.stream()
-                .filter(item -> item.getBook().getAuthor().toLowerCase()
-                        .contains(query.toLowerCase()))
+                .filter(item -> matches(item, query))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        return item.getBook().getAuthor().toLowerCase().contains(query.toLowerCase());
+    }
 }
 
 class IsbnSearchStrategy implements SearchStrategy {
     @Override
     public List<BookItem> search(List<BookItem> items, String query) {
         return items.stream()
-                .filter(item -> item.getBook().getIsbn().equalsIgnoreCase(query))
+                .filter(item -> matches(item, query))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        return item.getBook().getIsbn().equalsIgnoreCase(query);
+    }
 }
 
 class CategorySearchStrategy implements SearchStrategy {
     @Override
     public List<BookItem> search(List<BookItem> items, String query) {
         return items.stream()
-                .filter(item -> item.getBook().getCategory().toLowerCase()
-                        .contains(query.toLowerCase()))
+                .filter(item -> matches(item, query))
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        return item.getBook().getCategory().toLowerCase().contains(query.toLowerCase());
+    }
+}
+
+// Observer Pattern - catalog changes, used to keep search indexes in sync
+interface CatalogListener {
+    void onItemAdded(BookItem item);
+
+    // Bulk loads; indexes override this to take their lock once per batch
+    default void onItemsAdded(List<BookItem> items) {
+        items.forEach(this::onItemAdded);
+    }
+
+    void onItemRemoved(BookItem item);
+
+    void onItemUpdated(BookItem item);
+
+    // Only the status changed (borrow, return, holds), never the text fields
+    default void onStatusChanged(BookItem item) {
+        onItemUpdated(item);
+    }
 }
 
 // Repository Pattern
 interface LibraryRepository {
     void addBookItem(BookItem item);
 
+    default void addBookItems(List<BookItem> items) {
+        items.forEach(this::addBookItem);
+    }
+
+    // Existing items are replayed to the listener as additions
+    void addCatalogListener(CatalogListener listener);
+
     BookItem getBookItemByBarcode(String barcode);
 
     List<BookItem> getAllItems();
 
+    // Items from the given catalog id on, in catalog order, read lazily so a
+    // caller that stops early does not pay for a catalog copy
+    default Iterator<BookItem> iterateItems(int fromCatalogId) {
+        List<BookItem> all = getAllItems();
+        all.removeIf(item -> item.getCatalogId() < fromCatalogId);
+        all.sort(Comparator.comparingInt(BookItem::getCatalogId));
+        return all.iterator();
+    }
+
     List<BookItem> getAvailableItems();
 
+    List<BookItem> getItemsByStatus(BookStatus status);
+
+    int countItemsByStatus(BookStatus status);
+
+    // Copies of one title with availability counters, or null if none were added
+    TitleCopies getTitleCopies(String isbn);
+
+    BookItem findAvailableCopy(String isbn);
+
     void updateBookItem(BookItem item);
 
+    // Saves a status change; listeners can skip re-reading the text fields
+    default void updateBookStatus(BookItem item) {
+        updateBookItem(item);
+    }
+
     boolean removeBookItem(String barcode);
 }
 
 class InMemoryLibraryRepository implements LibraryRepository {
-    private final Map<String, BookItem> items = new HashMap<>();
+    private final BarcodeMap items = new BarcodeMap();
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private final CopyIndex copyIndex = new CopyIndex();
+    private final StatusIndex statusIndex = new StatusIndex(copyIndex);
+    private int nextCatalogId;
+
+    // Adds and removals hold the repository lock, so catalog ids are handed
+    // out in order and indexes see each barcode change once
+    @Override
+    public synchronized void addBookItem(BookItem item) {
+        BookItem previous = items.put(item);
+        if (previous == item) {
+            listeners.forEach(l -> l.onItemUpdated(item));
+            return;
+        }
+        if (previous != null) {
+            detach(previous);
+            listeners.forEach(l -> l.onItemRemoved(previous));
+        }
+        item.setCatalogId(nextCatalogId++);
+        // Listener first: add() reads the status after any change it missed
+        item.setStatusListener(statusIndex);
+        statusIndex.add(item);
+        listeners.forEach(l -> l.onItemAdded(item));
+    }
 
+    // Bulk load: new barcodes go straight in and every index sees one batch;
+    // barcodes already in the catalog take the regular replace path, and a
+    // barcode repeated within the batch keeps only its last copy
     @Override
-    public void addBookItem(BookItem item) {
-        items.put(item.getBarcode(), item);
+    public synchronized void addBookItems(List<BookItem> batch) {
+        int firstId = nextCatalogId;
+        List<BookItem> added = new ArrayList<>(batch.size());
+        for (BookItem item : batch) {
+            BookItem previous = items.putIfAbsent(item);
+            if (previous == null) {
+                item.setCatalogId(nextCatalogId++);
+                item.setStatusListener(statusIndex);
+                added.add(item);
+                continue;
+            }
+            // added is in catalog id order, so an earlier copy from this batch
+            // is found by id; the later copy takes over its slot
+            int slot = previous.getCatalogId() >= firstId
+                    ? Collections.binarySearch(added, previous, Comparator.comparingInt(BookItem::getCatalogId))
+                    : -1;
+            if (slot < 0) {
+                addBookItem(item);
+            } else if (previous != item) {
+                items.put(item);
+                previous.setStatusListener(null);
+                item.setCatalogId(previous.getCatalogId());
+                item.setStatusListener(statusIndex);
+                added.set(slot, item);
+            }
+        }
+        statusIndex.addAll(added);
+        // Indexes are independent, so a large batch builds them side by side
+        if (added.size() >= 10_000) {
+            listeners.parallelStream().forEach(l -> l.onItemsAdded(added));
+        } else {
+            listeners.forEach(l -> l.onItemsAdded(added));
+        }
+    }
+
+    @Override
+    public synchronized void addCatalogListener(CatalogListener listener) {
+        // In catalog id order, so posting lists grow by appends only
+        List<BookItem> existing = items.values();
+        existing.sort(Comparator.comparingInt(BookItem::getCatalogId));
+        listener.onItemsAdded(existing);
+        listeners.add(listener);
     }
 
     @Override
@@ -375,24 +722,73 @@ class InMemoryLibraryRepository implements LibraryRepository {
 
     @Override
     public List<BookItem> getAllItems() {
-        return new ArrayList<>(items.values());
+        return items.values();
+    }
+
+    @Override
+    public Iterator<BookItem> iterateItems(int fromCatalogId) {
+        return statusIndex.iterator(fromCatalogId);
     }
 
     @Override
     public List<BookItem> getAvailableItems() {
-        return items.values().stream()
-                .filter(item -> item.getStatus() == BookStatus.AVAILABLE)
-                .collect(Collectors.toList());
+        return statusIndex.items(BookStatus.AVAILABLE);
+    }
+
+    @Override
+    public List<BookItem> getItemsByStatus(BookStatus status) {
+        return statusIndex.items(status);
+    }
+
+    @Override
+    public int countItemsByStatus(BookStatus status) {
+        return statusIndex.count(status);
+    }
+
+    @Override
+    public TitleCopies getTitleCopies(String isbn) {
+        return copyIndex.get(isbn);
+    }
+
+    @Override
+    public BookItem findAvailableCopy(String isbn) {
+        return copyIndex.anyAvailable(isbn);
     }
 
     @Override
     public void updateBookItem(BookItem item) {
-        items.put(item.getBarcode(), item);
+        BookItem previous = items.get(item.getBarcode());
+        if (previous != item) {
+            // A different object under the same barcode is a replacement
+            addBookItem(item);
+            return;
+        }
+        listeners.forEach(l -> l.onItemUpdated(item));
+    }
+
+    @Override
+    public void updateBookStatus(BookItem item) {
+        if (items.get(item.getBarcode()) != item) {
+            updateBookItem(item);
+            return;
+        }
+        listeners.forEach(l -> l.onStatusChanged(item));
     }
 
     @Override
-    public boolean removeBookItem(String barcode) {
-        return items.remove(barcode) != null;
+    public synchronized boolean removeBookItem(String barcode) {
+        BookItem removed = items.remove(barcode);
+        if (removed == null) {
+            return false;
+        }
+        detach(removed);
+        listeners.forEach(l -> l.onItemRemoved(removed));
+        return true;
+    }
+
+    private void detach(BookItem item) {
+        item.setStatusListener(null);
+        statusIndex.remove(item);
     }
 }
 
@@ -402,13 +798,23 @@ interface UserRepository {
 
     User getUserById(String id);
 
+    // Called after a user's details or set of loans change (new user,
+    // archived history, fine payment), so persistent repositories can save them
+    void updateUser(User user);
+
+    // Called after one loan changed (borrowed, returned, fine accrued) and
+    // nothing else of its user, so persistent repositories can save just it
+    default void updateBorrowRecord(BorrowRecord record) {
+        updateUser(record.getUser());
+    }
+
     List<User> getAllUsers();
 
     boolean removeUser(String id);
 }
 
 class InMemoryUserRepository implements UserRepository {
-    private final Map<String, User> users = new HashMap<>();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
 
     @Override
     public void addUser(User user) {
@@ -420,6 +826,11 @@ class InMemoryUserRepository implements UserRepository {
         return users.get(id);
     }
 
+    @Override
+    public void updateUser(User user) {
+        users.put(user.getId(), user);
+    }
+
     @Override
     public List<User> getAllUsers() {
         return new ArrayList<>(users.values());
@@ -434,6 +845,12 @@ class InMemoryUserRepository implements UserRepository {
 // Fine Calculator Strategy
 interface FineCalculator {
     double calculateFine(BorrowRecord record);
+
+    // Fine owed as of the given day, used by the nightly accrual for open
+    // loans. Calculators that do not look at dates need not override it.
+    default double calculateFine(BorrowRecord record, LocalDate asOf) {
+        return calculateFine(record);
+    }
 }
 
 class StandardFineCalculator implements FineCalculator {
@@ -442,12 +859,15 @@ class StandardFineCalculator implements FineCalculator {
 
     @Override
     public double calculateFine(BorrowRecord record) {
-        if (!record.isOverdue())
-            return 0.0;
-
-        long daysOverdue = java.time.temporal.ChronoUnit.DAYS.between(
-                record.getDueDate(),
+        return calculateFine(record,
                 record.getReturnDate() != null ? record.getReturnDate() : LocalDate.now());
+    }
+
+    @Override
+    public double calculateFine(BorrowRecord record, LocalDate asOf) {
+        long daysOverdue = java.time.temporal.ChronoUnit.DAYS.between(record.getDueDate(), asOf);
+        if (daysOverdue <= 0)
+            return 0.0;
 
         double fine = daysOverdue * DAILY_FINE;
         return Math.min(fine, MAX_FINE);
@@ -456,10 +876,22 @@ class StandardFineCalculator implements FineCalculator {
 
 // Main Library Service
 class LibraryService {
+    // Larger page requests are cut to this many results
+    static final int MAX_PAGE_SIZE = 1_000;
+
     private final LibraryRepository bookRepository;
     private final UserRepository userRepository;
     private final FineCalculator fineCalculator;
+    private final DueDateIndex dueDates = new DueDateIndex();
+    private final HoldManager holds;
+    private final FineLedger fines = new FineLedger();
+    private final FineAccrualJob fineAccrual;
+    private final LibraryMetrics metrics = new LibraryMetrics();
     private SearchStrategy searchStrategy;
+    private SearchCache searchCache;
+    private ColdHistoryStore coldHistory;
+    // Loan and hold notices on stdout
+    private volatile boolean consoleMessages = true;
 
     public LibraryService(LibraryRepository bookRepository,
             UserRepository userRepository,
@@ -467,17 +899,126 @@ class LibraryService {
         this.bookRepository = bookRepository;
         this.userRepository = userRepository;
         this.fineCalculator = fineCalculator;
+        this.holds = new HoldManager(bookRepository);
+        // Accruals are saved with the user, which is what restores them
+        this.fineAccrual = new FineAccrualJob(fines, fineCalculator, userRepository::updateBorrowRecord);
+        // Loans and fines restored by a persistent repository
+        userRepository.getAllUsers().forEach(this::restore);
+    }
+
+    // Benchmarks and bulk jobs turn the notices off: each one is a string
+    // build and a lock on System.out inside every borrow and return
+    public void setConsoleMessages(boolean enabled) {
+        this.consoleMessages = enabled;
     }
 
     public void setSearchStrategy(SearchStrategy strategy) {
         this.searchStrategy = strategy;
     }
 
+    // Caches search results until a catalog change could alter them
+    public void enableSearchCache(int maxEntries, Duration ttl) {
+        SearchCache cache = new SearchCache(maxEntries, ttl);
+        bookRepository.addCatalogListener(cache);
+        this.searchCache = cache;
+    }
+
+    public String getSearchCacheStats() {
+        return searchCache != null ? searchCache.getStats() : "disabled";
+    }
+
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
     public List<BookItem> search(String query) {
-        if (searchStrategy == null) {
+        SearchStrategy strategy = searchStrategy;
+        if (strategy == null) {
             throw new IllegalStateException("Search strategy not set");
         }
-        return searchStrategy.search(bookRepository.getAllItems(), query);
+        OperationMetrics searchMetrics = metrics.search(strategy);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<BookItem> results = searchCache != null
+                    ? searchCache.get(strategy, query, () -> runSearch(strategy, query, searchMetrics))
+                    : runSearch(strategy, query, searchMetrics);
+            failed = false;
+            return results;
+        } finally {
+            searchMetrics.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    // One page of results; pass the page's next token to continue. Indexed
+    // strategies answer from the index, others test items in catalog order
+    // and stop once the page is full. Pages bypass the search cache and hold
+    // at most MAX_PAGE_SIZE results.
+    public SearchPage searchPage(String query, int limit, String pageToken) {
+        SearchStrategy strategy = searchStrategy;
+        if (strategy == null) {
+            throw new IllegalStateException("Search strategy not set");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+        OperationMetrics searchMetrics = metrics.search(strategy);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            SearchPage page;
+            if (strategy instanceof IndexedSearchStrategy) {
+                page = ((IndexedSearchStrategy) strategy).searchPage(query, limit, pageToken);
+                searchMetrics.examined(page.getItems().size());
+            } else {
+                page = scanPage(strategy, query, limit, pageToken, searchMetrics);
+            }
+            failed = false;
+            return page;
+        } finally {
+            searchMetrics.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private SearchPage scanPage(SearchStrategy strategy, String query, int limit, String pageToken,
+            OperationMetrics searchMetrics) {
+        // One match past the page marks where the next page starts
+        List<BookItem> matches = new ArrayList<>();
+        Iterator<BookItem> items = bookRepository.iterateItems(SearchPage.position(pageToken));
+        int examined = 0;
+        while (matches.size() <= limit && items.hasNext()) {
+            BookItem item = items.next();
+            examined++;
+            if (strategy.matches(item, query)) {
+                matches.add(item);
+            }
+        }
+        searchMetrics.examined(examined);
+        return SearchPage.ofCatalogOrder(matches, limit);
+    }
+
+    // Records items examined: every catalog item for a scan; for an index,
+    // the results it produced (postings it skipped are not items)
+    private List<BookItem> runSearch(SearchStrategy strategy, String query, OperationMetrics searchMetrics) {
+        if (strategy instanceof IndexedSearchStrategy) {
+            List<BookItem> results = ((IndexedSearchStrategy) strategy).search(query);
+            searchMetrics.examined(results.size());
+            return results;
+        }
+        // Streams the catalog instead of copying it first
+        List<BookItem> matches = new ArrayList<>();
+        Iterator<BookItem> items = bookRepository.iterateItems(0);
+        int examined = 0;
+        while (items.hasNext()) {
+            BookItem item = items.next();
+            examined++;
+            if (strategy.matches(item, query)) {
+                matches.add(item);
+            }
+        }
+        searchMetrics.examined(examined);
+        return matches;
     }
 
     public void addBookItem(BookItem item) {
@@ -486,43 +1027,127 @@ class LibraryService {
 
     public void addUser(User user) {
         userRepository.addUser(user);
+        restore(user);
+    }
+
+    private void restore(User user) {
+        user.getActiveBorrows().forEach(dueDates::add);
+        fines.restore(user);
     }
 
     public BorrowRecord borrowBook(String barcode, String userId) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            BorrowRecord record = borrow(barcode, userId);
+            failed = false;
+            return record;
+        } finally {
+            metrics.borrow.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private BorrowRecord borrow(String barcode, String userId) {
         User user = userRepository.getUserById(userId);
         if (user == null) {
             throw new IllegalArgumentException("User not found");
         }
 
-        if (!user.canBorrow()) {
-            throw new IllegalStateException("User has reached borrow limit");
-        }
-
         BookItem item = bookRepository.getBookItemByBarcode(barcode);
         if (item == null) {
             throw new IllegalArgumentException("Book item not found");
         }
 
-        if (item.getStatus() != BookStatus.AVAILABLE) {
+        // Reserve a slot, then claim the copy; each step is atomic on its own
+        if (!user.tryReserveBorrow()) {
+            throw new IllegalStateException("User has reached borrow limit");
+        }
+
+        LocalDate dueDate = dueDateFor(user);
+
+        // A RESERVED copy only goes to the patron whose hold it is waiting for
+        boolean claimed = item.getStatus() == BookStatus.RESERVED
+                ? holds.pickUp(item, user, dueDate)
+                : item.tryBorrow(dueDate);
+        if (!claimed) {
+            user.releaseBorrowSlot();
             throw new IllegalStateException("Book is not available");
         }
+        return lend(user, item, dueDate);
+    }
+
+    // Checkout by title: borrows whichever copy is on the shelf
+    public BorrowRecord borrowByIsbn(String isbn, String userId) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            BorrowRecord record = borrowAnyCopy(isbn, userId);
+            failed = false;
+            return record;
+        } finally {
+            metrics.borrow.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private BorrowRecord borrowAnyCopy(String isbn, String userId) {
+        User user = userRepository.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        if (!user.tryReserveBorrow()) {
+            throw new IllegalStateException("User has reached borrow limit");
+        }
+        LocalDate dueDate = dueDateFor(user);
+        // Concurrent callers may all pick the same copy; whoever loses the
+        // claim moves on to the next one until the shelf is empty
+        BookItem item;
+        while ((item = bookRepository.findAvailableCopy(isbn)) != null) {
+            if (item.tryBorrow(dueDate)) {
+                return lend(user, item, dueDate);
+            }
+            Thread.onSpinWait();
+        }
+        user.releaseBorrowSlot();
+        throw new IllegalStateException("No available copy of " + isbn);
+    }
 
+    private static LocalDate dueDateFor(User user) {
         // Calculate due date based on membership type
         int loanPeriod = user.getMembershipType() == MembershipType.FACULTY ? 30 : 14;
-        LocalDate dueDate = LocalDate.now().plusDays(loanPeriod);
+        return LocalDate.now().plusDays(loanPeriod);
+    }
 
-        item.borrow(dueDate);
-        bookRepository.updateBookItem(item);
+    // Records a loan on a copy the caller has claimed
+    private BorrowRecord lend(User user, BookItem item, LocalDate dueDate) {
+        // Copy saved before the loan: a crash in between leaves an orphaned
+        // BORROWED copy, which the user repository shelves on open
+        bookRepository.updateBookStatus(item);
 
         BorrowRecord record = new BorrowRecord(item, user, dueDate);
-        user.addBorrowRecord(record);
+        user.commitBorrow(record);
+        userRepository.updateBorrowRecord(record);
+        dueDates.add(record);
 
-        System.out.println(user.getName() + " borrowed " +
-                item.getBook().getTitle() + " (Due: " + dueDate + ")");
+        if (consoleMessages) {
+            System.out.println(user.getName() + " borrowed " +
+                    item.getBook().getTitle() + " (Due: " + dueDate + ")");
+        }
         return record;
     }
 
     public double returnBook(String barcode, String userId) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            double fine = giveBack(barcode, userId);
+            failed = false;
+            return fine;
+        } finally {
+            metrics.returns.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private double giveBack(String barcode, String userId) {
         User user = userRepository.getUserById(userId);
         if (user == null) {
             throw new IllegalArgumentException("User not found");
@@ -537,43 +1162,196 @@ class LibraryService {
             throw new IllegalStateException("Book is not currently borrowed");
         }
 
-        // Find the active borrow record
-        BorrowRecord record = user.getActiveBorrows().stream()
-                .filter(r -> r.getBookItem().getBarcode().equals(barcode))
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("No active borrow record found"));
-
+        // Close the active borrow record; only one concurrent return gets it
         LocalDate returnDate = LocalDate.now();
-        record.setReturnDate(returnDate);
+        BorrowRecord record = user.completeBorrow(barcode, returnDate);
+        if (record == null) {
+            throw new IllegalStateException("No active borrow record found");
+        }
+        dueDates.remove(record);
 
         double fine = fineCalculator.calculateFine(record);
         record.setFine(fine);
+        fines.settle(record, fine);
+        // Loan saved closed before the copy, for the same crash repair as borrow
+        userRepository.updateBorrowRecord(record);
 
-        item.returnItem();
-        bookRepository.updateBookItem(item);
+        // Shelve only after the loan is closed, so nobody borrows it mid-return;
+        // the head of the title's hold queue gets it first
+        Hold served = holds.release(item, BookStatus.BORROWED, returnDate);
+        bookRepository.updateBookStatus(item);
 
-        System.out.println(user.getName() + " returned " + item.getBook().getTitle());
-        if (fine > 0) {
+        if (consoleMessages) {
+            System.out.println(user.getName() + " returned " + item.getBook().getTitle());
+        }
+        if (served != null) {
+            announceReady(served);
+        }
+        if (fine > 0 && consoleMessages) {
             System.out.println("Fine charged: ₹" + fine);
         }
 
         return fine;
     }
 
+    public Hold placeHold(String isbn, String userId) {
+        User user = userRepository.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        if (bookRepository.getTitleCopies(isbn) == null) {
+            throw new IllegalArgumentException("Book not found");
+        }
+        Hold hold = holds.place(user, isbn, LocalDate.now());
+        if (hold.getStatus() == HoldStatus.READY) {
+            bookRepository.updateBookStatus(hold.getBookItem());
+            announceReady(hold);
+        }
+        return hold;
+    }
+
+    public boolean cancelHold(Hold hold) {
+        boolean wasReady = hold.getStatus() == HoldStatus.READY;
+        boolean cancelled = holds.cancel(hold, LocalDate.now());
+        if (cancelled && wasReady) {
+            bookRepository.updateBookStatus(hold.getBookItem());
+        }
+        return cancelled;
+    }
+
+    // Daily job: lapsed pickups go back to the shelf or to the next in line
+    public List<Hold> expireHolds(LocalDate today) {
+        List<Hold> expired = holds.expire(today);
+        for (Hold hold : expired) {
+            bookRepository.updateBookStatus(hold.getBookItem());
+        }
+        return expired;
+    }
+
+    public int getHoldQueueLength(String isbn) {
+        return holds.getQueueLength(isbn);
+    }
+
+    private void announceReady(Hold hold) {
+        if (!consoleMessages) {
+            return;
+        }
+        System.out.println("Hold ready for " + hold.getUser().getName() + ": " +
+                hold.getBookItem().getBook().getTitle() + " (pick up by " + hold.getPickupDeadline() + ")");
+    }
+
     public List<BookItem> getAvailableBooks() {
         return bookRepository.getAvailableItems();
     }
 
+    public int getAvailableCount() {
+        return bookRepository.countItemsByStatus(BookStatus.AVAILABLE);
+    }
+
     public List<BorrowRecord> getUserBorrowHistory(String userId) {
+        return streamUserBorrowHistory(userId).collect(Collectors.toList());
+    }
+
+    // Archived loans first, then the hot ones; only the cold blocks covering
+    // the user are read
+    public Stream<BorrowRecord> streamUserBorrowHistory(String userId) {
         User user = userRepository.getUserById(userId);
-        return user != null ? user.getBorrowRecords() : Collections.emptyList();
+        if (user == null) {
+            return Stream.empty();
+        }
+        List<BorrowRecord> hot = user.getBorrowRecords();
+        ColdHistoryStore cold = coldHistory;
+        if (cold == null) {
+            return hot.stream();
+        }
+        // A crash mid-archive can leave a record in both tiers
+        Set<String> hotIds = new HashSet<>();
+        hot.forEach(record -> hotIds.add(record.getId()));
+        return Stream.concat(cold.stream(user, bookRepository).filter(record -> !hotIds.contains(record.getId())),
+                hot.stream());
+    }
+
+    public void setColdHistoryStore(ColdHistoryStore store) {
+        this.coldHistory = store;
+    }
+
+    // Nightly job: moves loans returned before cutoff out of the users' hot
+    // histories into a new cold segment. The segment is on disk before any
+    // record leaves the heap. Returns how many records moved.
+    public int archiveHistory(LocalDate cutoff) {
+        ColdHistoryStore cold = coldHistory;
+        if (cold == null) {
+            throw new IllegalStateException("Cold history store not configured");
+        }
+        if (cutoff.isAfter(LocalDate.now())) {
+            // Today's returns may still be settling their fines
+            throw new IllegalArgumentException("Cutoff must not be in the future");
+        }
+        Map<User, Set<BorrowRecord>> byUser = new HashMap<>();
+        List<BorrowRecord> archived = new ArrayList<>();
+        for (User user : userRepository.getAllUsers()) {
+            for (BorrowRecord record : user.getBorrowRecords()) {
+                LocalDate returned = record.getReturnDate();
+                if (returned != null && returned.isBefore(cutoff)) {
+                    byUser.computeIfAbsent(user, u -> new HashSet<>()).add(record);
+                    archived.add(record);
+                }
+            }
+        }
+        try {
+            cold.archive(archived);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byUser.forEach((user, records) -> {
+            user.removeArchivedRecords(records);
+            userRepository.updateUser(user);
+        });
+        return archived.size();
     }
 
     public List<BorrowRecord> getOverdueBooks() {
-        return userRepository.getAllUsers().stream()
-                .flatMap(user -> user.getActiveBorrows().stream())
-                .filter(BorrowRecord::isOverdue)
-                .collect(Collectors.toList());
+        return getOverdueBooks(LocalDate.now());
+    }
+
+    // Range read over the due-date index, earliest due first
+    public List<BorrowRecord> getOverdueBooks(LocalDate asOf) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<BorrowRecord> overdue = dueDates.overdueAsOf(asOf);
+            // A range read: it looks at exactly the records it returns
+            metrics.overdue.examined(overdue.size());
+            failed = false;
+            return overdue;
+        } finally {
+            metrics.overdue.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    // Daily job: only the loans that crossed their due date since the last run
+    public List<BorrowRecord> sweepNewlyOverdue(LocalDate today) {
+        return dueDates.sweep(today);
+    }
+
+    // Nightly job: brings the fines of all overdue open loans up to date in
+    // the outstanding-fines ledger; safe to re-run for the same day
+    public FineAccrualReport accrueFines(LocalDate asOf) {
+        return fineAccrual.run(dueDates.overdueAsOf(asOf), asOf);
+    }
+
+    public double getOutstandingFines(String userId) {
+        return fines.getOutstanding(userId);
+    }
+
+    public void payFine(String userId, double amount) {
+        User user = userRepository.getUserById(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found");
+        }
+        fines.recordPayment(userId, amount);
+        user.recordFinePayment(FineLedger.toPaise(amount));
+        userRepository.updateUser(user);
     }
 }
 
@@ -591,7 +1369,7 @@ class BookItemFactory {
     }
 
     private static String generateBarcode(Book book) {
-        return book.getIsbn() + "-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        return CompactIdSequence.BARCODES.next();
     }
 }
 
@@ -635,6 +1413,42 @@ public class Manager {
         List<BookItem> results = library.search("Clean Code");
         System.out.println("Search results: " + results.size() + " items found");
 
+        // Indexed search: answered from posting lists instead of a catalog scan
+        InvertedIndex index = new InvertedIndex();
+        bookRepo.addCatalogListener(index);
+        library.setSearchStrategy(new InvertedIndexSearchStrategy(index, BookField.AUTHOR));
+        System.out.println("Indexed author search: " + library.search("martin").size() + " items found");
+
+        TrigramIndex trigrams = new TrigramIndex();
+        bookRepo.addCatalogListener(trigrams);
+        library.setSearchStrategy(new SubstringSearchStrategy(trigrams, BookField.TITLE));
+        System.out.println("Substring title search: " + library.search("code").size() + " items found");
+
+        library.setSearchStrategy(new FuzzySearchStrategy(index, BookField.AUTHOR));
+        System.out.println("Fuzzy author search 'Robret Martin': " +
+                library.search("Robret Martin").size() + " items found");
+
+        // Repeated searches are served from the cache until the catalog changes
+        library.enableSearchCache(1_000, Duration.ofMinutes(10));
+        library.setSearchStrategy(new TitleSearchStrategy());
+        library.search("Clean Code");
+        library.search("clean code");
+        System.out.println("Search cache: " + library.getSearchCacheStats());
+
+        // Best titles first: BM25 over title/author/category, titles on the shelf boosted
+        library.setSearchStrategy(new RankedSearchStrategy(index, 5, RankedSearchStrategy.defaultWeights(), 0.5));
+        List<BookItem> ranked = library.search("clean code");
+        System.out.println("Ranked search: " + ranked.stream()
+                .map(item -> item.getBook().getTitle() + " (" + item.getStatus() + ")")
+                .collect(Collectors.joining(", ")));
+
+        // Page through results without materializing them all
+        library.setSearchStrategy(new CategorySearchStrategy());
+        SearchPage page = library.searchPage("programming", 2, null);
+        System.out.println("Page 1: " + page.getItems().size() + " items, more: " + page.hasMore());
+        page = library.searchPage("programming", 2, page.getNextPageToken());
+        System.out.println("Page 2: " + page.getItems().size() + " items, more: " + page.hasMore());
+
         // Borrow books
         try {
             library.borrowBook(item1.getBarcode(), user1.getId());
@@ -651,7 +1465,29 @@ public class Manager {
             System.err.println("Error: " + e.getMessage());
         }
 
+        // Checkout by title picks any copy on the shelf
+        library.borrowByIsbn(book1.getIsbn(), user2.getId());
+        System.out.println("Available copies: " + library.getAvailableCount() +
+                " of " + bookRepo.getAllItems().size());
+        TitleCopies cleanCode = bookRepo.getTitleCopies(book1.getIsbn());
+        System.out.println("Clean Code copies: " + cleanCode.getAvailableCount() + " available, " +
+                cleanCode.getBorrowedCount() + " borrowed");
+
+        // Holds: the only copy of Design Patterns is out, so Alice queues for it
+        library.placeHold(book2.getIsbn(), user1.getId());
+        System.out.println("Holds waiting on Design Patterns: " + library.getHoldQueueLength(book2.getIsbn()));
+        library.returnBook(item3.getBarcode(), user2.getId());
+        library.borrowBook(item3.getBarcode(), user1.getId());
+
         // Check overdue books
         System.out.println("\nOverdue books: " + library.getOverdueBooks().size());
+        System.out.println("Overdue in 31 days: " +
+                library.getOverdueBooks(LocalDate.now().plusDays(31)).size());
+
+        // Nightly fine accrual on open overdue loans
+        System.out.println("Fine accrual in 40 days: " + library.accrueFines(LocalDate.now().plusDays(40)));
+        System.out.println("Bob owes: ₹" + library.getOutstandingFines("U002"));
+
+        System.out.println("\nMetrics:\n" + library.getMetrics().toText());
     }
 }
\ No newline at end of file
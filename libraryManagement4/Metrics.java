@@ -0,0 +1,206 @@
+package libraryManagement4;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram with log-linear buckets: each power of two is split into
+// four, so any quantile is reported within 25% of its true value. Recording
+// is an array increment and never allocates.
+class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        sum.add(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long meanNanos() {
+        long n = total.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket holding the q-th quantile (0 < q <= 1)
+    public long quantileNanos(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
+
+// Calls, failures, latency and items examined for one operation
+class OperationMetrics {
+    private final String name;
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder examinedTotal = new LongAdder();
+    private final LongAdder examinedRuns = new LongAdder();
+    private volatile long examinedLast;
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    // Items (or records) the operation looked at to produce its answer
+    public void examined(long items) {
+        examinedLast = items;
+        examinedTotal.add(items);
+        examinedRuns.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return latency.count();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getExaminedLast() {
+        return examinedLast;
+    }
+
+    public long getExaminedAverage() {
+        long runs = examinedRuns.sum();
+        return runs == 0 ? 0 : examinedTotal.sum() / runs;
+    }
+
+    void appendText(StringBuilder out) {
+        out.append(String.format("%-36s count=%d failures=%d mean=%dus p50=%dus p90=%dus p99=%dus max=%dus",
+                name, getCount(), getFailures(), micros(latency.meanNanos()), micros(latency.quantileNanos(0.5)),
+                micros(latency.quantileNanos(0.9)), micros(latency.quantileNanos(0.99)),
+                micros(latency.maxNanos())));
+        if (examinedRuns.sum() > 0) {
+            out.append(String.format(" examined(last=%d avg=%d)", examinedLast, getExaminedAverage()));
+        }
+        out.append(System.lineSeparator());
+    }
+
+    void appendJson(StringBuilder out) {
+        out.append(String.format("\"%s\":{\"count\":%d,\"failures\":%d,\"meanMicros\":%d,\"p50Micros\":%d,"
+                + "\"p90Micros\":%d,\"p99Micros\":%d,\"maxMicros\":%d,\"examinedLast\":%d,\"examinedAvg\":%d}",
+                name, getCount(), getFailures(), micros(latency.meanNanos()), micros(latency.quantileNanos(0.5)),
+                micros(latency.quantileNanos(0.9)), micros(latency.quantileNanos(0.99)),
+                micros(latency.maxNanos()), examinedLast, getExaminedAverage()));
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1_000;
+    }
+}
+
+// LibraryService instrumentation: one OperationMetrics per operation, and per
+// search strategy class. Recording only touches counters that already exist
+// (a strategy's entry is created on its first search), so the hot path does
+// not allocate. Snapshots read the live counters and may be slightly skewed
+// across fields while operations are in flight.
+class LibraryMetrics {
+    final OperationMetrics borrow = new OperationMetrics("borrow");
+    final OperationMetrics returns = new OperationMetrics("return");
+    final OperationMetrics overdue = new OperationMetrics("getOverdueBooks");
+    private final Map<Class<?>, OperationMetrics> searches = new ConcurrentHashMap<>();
+
+    OperationMetrics search(SearchStrategy strategy) {
+        OperationMetrics metrics = searches.get(strategy.getClass());
+        if (metrics == null) {
+            metrics = searches.computeIfAbsent(strategy.getClass(),
+                    type -> new OperationMetrics("search:" + type.getSimpleName()));
+        }
+        return metrics;
+    }
+
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+        borrow.appendText(out);
+        returns.appendText(out);
+        overdue.appendText(out);
+        searches.values().forEach(metrics -> metrics.appendText(out));
+        return out.toString();
+    }
+
+    public String toJson() {
+        StringBuilder out = new StringBuilder("{");
+        borrow.appendJson(out);
+        out.append(',');
+        returns.appendJson(out);
+        out.append(',');
+        overdue.appendJson(out);
+        for (OperationMetrics metrics : searches.values()) {
+            out.append(',');
+            metrics.appendJson(out);
+        }
+        return out.append('}').toString();
+    }
+}
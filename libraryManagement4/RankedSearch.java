@@ -0,0 +1,156 @@
+package libraryManagement4;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+// Bounded min-heap of the k best (score, id) pairs. Higher scores win, then
+// lower ids, so equal scores come out in catalog order. Primitive arrays:
+// nothing is boxed or allocated per candidate.
+class TopK {
+    private final float[] scores;
+    private final int[] ids;
+    private int size;
+
+    TopK(int k) {
+        scores = new float[k];
+        ids = new int[k];
+    }
+
+    // Whether offering this pair would change the heap
+    boolean admits(float score, int id) {
+        return size < scores.length || better(score, id, scores[0], ids[0]);
+    }
+
+    void offer(float score, int id) {
+        if (size < scores.length) {
+            scores[size] = score;
+            ids[size] = id;
+            siftUp(size++);
+        } else if (better(score, id, scores[0], ids[0])) {
+            scores[0] = score;
+            ids[0] = id;
+            siftDown(0);
+        }
+    }
+
+    // Ids best first; empties the heap
+    int[] drain() {
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = ids[0];
+            size--;
+            scores[0] = scores[size];
+            ids[0] = ids[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    private static boolean better(float score, int id, float otherScore, int otherId) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    // The root holds the worst entry
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!better(scores[parent], ids[parent], scores[i], ids[i])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (better(scores[worst], ids[worst], scores[child], ids[child])) {
+                    worst = child;
+                }
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+}
+
+// Strategy Pattern: relevance-ranked search, best k titles first with one
+// copy each. Matches any query word in any weighted field and ranks titles by
+// field-weighted BM25; titles with a copy on the shelf can be boosted.
+class RankedSearchStrategy implements IndexedSearchStrategy {
+    private static final Map<BookField, Double> DEFAULT_WEIGHTS = new EnumMap<>(BookField.class);
+
+    static {
+        DEFAULT_WEIGHTS.put(BookField.TITLE, 3.0);
+        DEFAULT_WEIGHTS.put(BookField.AUTHOR, 2.0);
+        DEFAULT_WEIGHTS.put(BookField.CATEGORY, 1.0);
+    }
+
+    private final InvertedIndex index;
+    private final int k;
+    private final double[] weights = new double[BookField.values().length];
+    private final double availableBoost;
+
+    public RankedSearchStrategy(InvertedIndex index, int k) {
+        this(index, k, DEFAULT_WEIGHTS, 0);
+    }
+
+    public RankedSearchStrategy(InvertedIndex index, int k, Map<BookField, Double> weights, double availableBoost) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        if (availableBoost < 0) {
+            throw new IllegalArgumentException("availableBoost must not be negative");
+        }
+        this.index = index;
+        this.k = k;
+        this.availableBoost = availableBoost;
+        weights.forEach((field, weight) -> this.weights[field.ordinal()] = weight);
+    }
+
+    public static Map<BookField, Double> defaultWeights() {
+        return new EnumMap<>(DEFAULT_WEIGHTS);
+    }
+
+    @Override
+    public List<BookItem> search(String query) {
+        return index.searchRanked(query, k, weights, availableBoost);
+    }
+
+    // Availability picks the copy returned for a title and, with a boost,
+    // the ranking
+    @Override
+    public boolean dependsOnStatus() {
+        return true;
+    }
+
+    // Any query word in a weighted field. Drift in other items' scores as
+    // document frequencies change is not tracked.
+    @Override
+    public boolean matches(BookItem item, String query) {
+        List<String> terms = Tokenizer.tokens(query);
+        for (BookField field : BookField.values()) {
+            if (weights[field.ordinal()] > 0
+                    && !Collections.disjoint(terms, Tokenizer.tokens(field.valueOf(item.getBook())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
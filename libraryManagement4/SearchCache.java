@@ -0,0 +1,236 @@
+package libraryManagement4;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Search results by (strategy, normalized query): LRU-bounded, expiring, and
+// kept in sync with the catalog through CatalogListener. An entry is dropped
+// only when a change touches an item that is in its result or that its query
+// now matches, so unrelated catalog churn keeps popular queries cached.
+// Borrows and returns change only an item's status, which changes no query's
+// matches unless the strategy depends on status; those are the only entries
+// whose queries are re-tested then.
+//
+// Queries are normalized by lowercasing, which is exact for the built-in
+// strategies (all case-insensitive).
+class SearchCache implements CatalogListener {
+    // Larger results are served but not cached: tracking them costs more than a search
+    static final int MAX_CACHED_RESULT = 10_000;
+
+    private static final class Key {
+        final SearchStrategy strategy;
+        final String query;
+
+        Key(SearchStrategy strategy, String query) {
+            this.strategy = strategy;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return strategy == other.strategy && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(strategy), query);
+        }
+    }
+
+    private static final class Entry {
+        final List<BookItem> results;
+        final long expiresAt;
+
+        Entry(List<BookItem> results, long expiresAt) {
+            this.results = results;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Catalog id -> entries whose result holds that item
+    private final Map<Integer, Set<Key>> keysByItem = new HashMap<>();
+    // Entries whose strategy depends on status
+    private final Set<Key> statusKeys = new HashSet<>();
+    // Bumped by every invalidation; a search that raced one is not cached
+    private long version;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public SearchCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    SearchCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+    }
+
+    // Cached result for the query, or search's result (cached if small enough)
+    public List<BookItem> get(SearchStrategy strategy, String query, Supplier<List<BookItem>> search) {
+        Key key = new Key(strategy, normalize(query));
+        long startVersion;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - clock.getAsLong() > 0) {
+                hits++;
+                return new ArrayList<>(entry.results);
+            }
+            if (entry != null) {
+                remove(key);
+            }
+            misses++;
+            startVersion = version;
+        }
+        List<BookItem> results = search.get();
+        if (results.size() <= MAX_CACHED_RESULT) {
+            put(key, results, startVersion);
+        }
+        return results;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String getStats() {
+        return String.format("entries=%d hits=%d misses=%d evictions=%d invalidations=%d",
+                entries.size(), hits, misses, evictions, invalidations);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        keysByItem.clear();
+        statusKeys.clear();
+        version++;
+    }
+
+    // ---- CatalogListener ---------------------------------------------------
+
+    @Override
+    public void onItemAdded(BookItem item) {
+        invalidate(item, true);
+    }
+
+    @Override
+    public void onItemsAdded(List<BookItem> items) {
+        // A bulk load can match almost anything; starting over is cheaper
+        if (items.size() > maxEntries) {
+            synchronized (this) {
+                invalidations += entries.size();
+                clear();
+            }
+            return;
+        }
+        items.forEach(this::onItemAdded);
+    }
+
+    @Override
+    public void onItemRemoved(BookItem item) {
+        invalidate(item, false);
+    }
+
+    // Edits: drop results holding the item and queries the item matches now
+    @Override
+    public void onItemUpdated(BookItem item) {
+        invalidate(item, true);
+    }
+
+    // Borrows and returns: the same, testing only status-dependent queries
+    @Override
+    public void onStatusChanged(BookItem item) {
+        invalidate(item, false);
+    }
+
+    // checkMatches tests every cached query against the item; otherwise only
+    // status-dependent ones
+    private synchronized void invalidate(BookItem item, boolean checkMatches) {
+        Set<Key> stale = new HashSet<>();
+        Set<Key> holding = keysByItem.get(item.getCatalogId());
+        if (holding != null) {
+            stale.addAll(holding);
+        }
+        for (Key key : checkMatches ? entries.keySet() : statusKeys) {
+            if (!stale.contains(key) && matches(key, item)) {
+                stale.add(key);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        for (Key key : stale) {
+            remove(key);
+        }
+        invalidations += stale.size();
+        version++;
+    }
+
+    private static boolean matches(Key key, BookItem item) {
+        return key.strategy.matches(item, key.query);
+    }
+
+    private synchronized void put(Key key, List<BookItem> results, long startVersion) {
+        if (version != startVersion) {
+            return; // the catalog changed while we searched
+        }
+        remove(key);
+        List<BookItem> copy = new ArrayList<>(results);
+        entries.put(key, new Entry(copy, clock.getAsLong() + ttlNanos));
+        if (key.strategy.dependsOnStatus()) {
+            statusKeys.add(key);
+        }
+        for (BookItem item : copy) {
+            keysByItem.computeIfAbsent(item.getCatalogId(), id -> new HashSet<>(2)).add(key);
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        statusKeys.remove(key);
+        for (BookItem item : entry.results) {
+            Set<Key> keys = keysByItem.get(item.getCatalogId());
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByItem.remove(item.getCatalogId());
+            }
+        }
+    }
+
+    private static String normalize(String query) {
+        return query.toLowerCase(Locale.ROOT);
+    }
+}
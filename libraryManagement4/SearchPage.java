@@ -0,0 +1,66 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of search results. Pass nextPageToken back for the following page;
+// it is null on the last one. Tokens are opaque to callers: for results in
+// catalog order they hold the catalog id the next page starts at, so paging
+// stays stable while items are added or removed; ranked results use an offset.
+class SearchPage {
+    private final List<BookItem> items;
+    private final String nextPageToken;
+
+    SearchPage(List<BookItem> items, String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<BookItem> getItems() {
+        return items;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasMore() {
+        return nextPageToken != null;
+    }
+
+    // Where a token resumes; the first page starts at 0
+    static int position(String pageToken) {
+        if (pageToken == null) {
+            return 0;
+        }
+        try {
+            int position = Integer.parseInt(pageToken);
+            if (position >= 0) {
+                return position;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid page token: " + pageToken);
+    }
+
+    // matches holds up to limit + 1 items in catalog order; the extra one is
+    // where the next page starts
+    static SearchPage ofCatalogOrder(List<BookItem> matches, int limit) {
+        if (matches.size() <= limit) {
+            return new SearchPage(matches, null);
+        }
+        String next = Integer.toString(matches.get(limit).getCatalogId());
+        return new SearchPage(new ArrayList<>(matches.subList(0, limit)), next);
+    }
+
+    // Results in any other order (e.g. ranked by distance) are paged by offset
+    static SearchPage ofOffset(List<BookItem> results, int offset, int limit) {
+        if (offset >= results.size()) {
+            return new SearchPage(new ArrayList<>(), null);
+        }
+        int end = (int) Math.min((long) offset + limit, results.size());
+        String next = end < results.size() ? Integer.toString(end) : null;
+        return new SearchPage(new ArrayList<>(results.subList(offset, end)), next);
+    }
+}
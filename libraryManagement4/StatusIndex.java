@@ -0,0 +1,257 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Observer Pattern - BookItem status transitions (borrow/return/setStatus)
+interface StatusListener {
+    void onStatusChanged(BookItem item);
+}
+
+// Status moves as filed by StatusIndex, in order per item (under the item's
+// stripe lock); moves of different items may arrive concurrently.
+// from is null when the item enters the catalog, to is null when it leaves.
+interface StatusTransitionListener {
+    void onTransition(BookItem item, BookStatus from, BookStatus to);
+}
+
+// Catalog ids partitioned by BookStatus, one bitmap per status.
+// Availability queries walk only the set bits of one status and counts are
+// kept per status, so neither ever scans the whole catalog.
+//
+// Ids live in fixed pages that never move once published, so a status change
+// takes no index-wide lock: it locks only the stripe owning the id's 64-bit
+// bitmap word, which keeps each item's transitions in order while checkouts
+// of other copies proceed in parallel. The page directory is grown under the
+// index monitor; readers take no lock and are weakly consistent like the
+// ConcurrentHashMap views.
+class StatusIndex implements StatusListener {
+    private static final BookStatus[] STATUSES = BookStatus.values();
+    private static final int SCAN_BATCH = 256;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int STRIPES = 64;
+
+    private volatile Page[] pages = new Page[0];
+    private final LongAdder[] counts = new LongAdder[STATUSES.length];
+    private final Object[] stripes = new Object[STRIPES];
+    private final StatusTransitionListener transitions;
+
+    public StatusIndex() {
+        this(null);
+    }
+
+    public StatusIndex(StatusTransitionListener transitions) {
+        this.transitions = transitions;
+        for (int i = 0; i < STATUSES.length; i++) {
+            counts[i] = new LongAdder();
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public void add(BookItem item) {
+        int id = item.getCatalogId();
+        Page page = page(id, true);
+        synchronized (stripe(id)) {
+            page.items.set(id & (PAGE_SIZE - 1), item);
+            file(page, id, item.getStatus());
+        }
+    }
+
+    // Bulk load: the directory is grown once for the whole batch
+    public void addAll(List<BookItem> batch) {
+        int maxId = -1;
+        for (BookItem item : batch) {
+            maxId = Math.max(maxId, item.getCatalogId());
+        }
+        if (maxId >= 0) {
+            page(maxId, true);
+        }
+        for (BookItem item : batch) {
+            add(item);
+        }
+    }
+
+    public void remove(BookItem item) {
+        int id = item.getCatalogId();
+        Page page = page(id, false);
+        if (page == null) {
+            return;
+        }
+        synchronized (stripe(id)) {
+            if (page.items.get(id & (PAGE_SIZE - 1)) != item) {
+                return;
+            }
+            file(page, id, null);
+            page.items.set(id & (PAGE_SIZE - 1), null);
+        }
+    }
+
+    @Override
+    public void onStatusChanged(BookItem item) {
+        int id = item.getCatalogId();
+        Page page = page(id, false);
+        if (page == null) {
+            return;
+        }
+        synchronized (stripe(id)) {
+            if (page.items.get(id & (PAGE_SIZE - 1)) == item) {
+                file(page, id, item.getStatus());
+            }
+        }
+    }
+
+    // Items with the given status, in catalog order
+    public List<BookItem> items(BookStatus status) {
+        int ordinal = status.ordinal();
+        List<BookItem> result = new ArrayList<>(count(status));
+        for (Page page : pages) {
+            if (page == null) {
+                continue;
+            }
+            AtomicLongArray bits = page.members[ordinal];
+            for (int word = 0; word < bits.length(); word++) {
+                long set = bits.get(word);
+                while (set != 0) {
+                    BookItem item = page.items.get((word << 6) + Long.numberOfTrailingZeros(set));
+                    if (item != null) {
+                        result.add(item);
+                    }
+                    set &= set - 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    public int count(BookStatus status) {
+        return (int) Math.max(0, counts[status.ordinal()].sum());
+    }
+
+    // Every item from catalog id fromId on, in catalog order. Fetched a batch
+    // at a time, so a reader pays only for what it consumes.
+    public Iterator<BookItem> iterator(int fromId) {
+        return new Iterator<BookItem>() {
+            private final BookItem[] batch = new BookItem[SCAN_BATCH];
+            private int pos = batch.length;
+            private int next = Math.max(fromId, 0);
+
+            @Override
+            public boolean hasNext() {
+                if (pos == batch.length) {
+                    next = fill(next, batch);
+                    pos = 0;
+                }
+                return batch[pos] != null;
+            }
+
+            @Override
+            public BookItem next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch[pos++];
+            }
+        };
+    }
+
+    // Copies items from fromId on into out, null-terminated if it runs short;
+    // returns the id to continue from
+    private int fill(int fromId, BookItem[] out) {
+        Page[] current = pages;
+        int limit = current.length * PAGE_SIZE;
+        int n = 0;
+        int id = fromId;
+        for (; id < limit && n < out.length; id++) {
+            Page page = current[id >>> PAGE_BITS];
+            if (page == null) {
+                id |= PAGE_SIZE - 1;
+                continue;
+            }
+            BookItem item = page.items.get(id & (PAGE_SIZE - 1));
+            if (item != null) {
+                out[n++] = item;
+            }
+        }
+        if (n < out.length) {
+            out[n] = null;
+        }
+        return id;
+    }
+
+    private Object stripe(int id) {
+        return stripes[(id >>> 6) & (STRIPES - 1)];
+    }
+
+    // Caller holds the id's stripe, the only lock its bitmap word is written
+    // under, so a plain read-modify-write of the word cannot lose a bit
+    private void file(Page page, int id, BookStatus status) {
+        int slot = id & (PAGE_SIZE - 1);
+        BookStatus previous = page.filed.get(slot);
+        if (previous == status) {
+            return;
+        }
+        long bit = 1L << slot;
+        if (previous != null) {
+            AtomicLongArray bits = page.members[previous.ordinal()];
+            bits.set(slot >>> 6, bits.get(slot >>> 6) & ~bit);
+            counts[previous.ordinal()].decrement();
+        }
+        if (status != null) {
+            AtomicLongArray bits = page.members[status.ordinal()];
+            bits.set(slot >>> 6, bits.get(slot >>> 6) | bit);
+            counts[status.ordinal()].increment();
+        }
+        page.filed.set(slot, status);
+        if (transitions != null) {
+            transitions.onTransition(page.items.get(slot), previous, status);
+        }
+    }
+
+    private Page page(int id, boolean create) {
+        if (id < 0) {
+            return null;
+        }
+        int index = id >>> PAGE_BITS;
+        Page[] current = pages;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        if (!create) {
+            return null;
+        }
+        synchronized (this) {
+            current = pages;
+            if (index < current.length && current[index] != null) {
+                return current[index];
+            }
+            current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            current[index] = new Page();
+            pages = current;
+            return current[index];
+        }
+    }
+
+    // One PAGE_SIZE run of catalog ids; never replaced once published
+    private static final class Page {
+        final AtomicReferenceArray<BookItem> items = new AtomicReferenceArray<>(PAGE_SIZE);
+        // Status each id is currently filed under, so a late or repeated
+        // notification just re-files the item under its current status
+        final AtomicReferenceArray<BookStatus> filed = new AtomicReferenceArray<>(PAGE_SIZE);
+        final AtomicLongArray[] members = new AtomicLongArray[STATUSES.length];
+
+        Page() {
+            for (int i = 0; i < members.length; i++) {
+                members[i] = new AtomicLongArray(PAGE_SIZE / 64);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package libraryManagement4;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Flyweight pool of strings: each distinct value is stored once and referred
+// to by a dense int id. Lookups by id are a plain array read; interning takes
+// the lock only for a value never seen before.
+class StringDictionary {
+    static final int NULL_ID = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Grown by copy; an id handed out is always readable through the current array
+    private volatile String[] values = new String[64];
+    private int size;
+
+    public int intern(String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = value;
+            values = current;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    public String resolve(int id) {
+        return id == NULL_ID ? null : values[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,142 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Base for indexes over Book text fields, kept in sync via CatalogListener.
+// Tracks items by catalog id together with the field values they were indexed
+// with, so removals undo exactly what was added and status-only updates
+// (borrow/return) skip re-indexing.
+abstract class TextIndex implements CatalogListener {
+    protected static final BookField[] FIELDS = BookField.values();
+
+    protected BookItem[] items = new BookItem[16];
+    protected String[][] indexed = new String[16][];
+    protected int live;
+    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected abstract void addDocument(int id, String[] values);
+
+    protected abstract void removeDocument(int id, String[] values);
+
+    @Override
+    public void onItemAdded(BookItem item) {
+        lock.writeLock().lock();
+        try {
+            index(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onItemsAdded(List<BookItem> batch) {
+        lock.writeLock().lock();
+        try {
+            for (BookItem item : batch) {
+                index(item);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onItemRemoved(BookItem item) {
+        lock.writeLock().lock();
+        try {
+            unindex(item.getCatalogId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onItemUpdated(BookItem item) {
+        int id = item.getCatalogId();
+        // Status-only updates (every borrow/return) must not queue on the write lock
+        lock.readLock().lock();
+        try {
+            if (isCurrent(id, item)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (isCurrent(id, item)) {
+                return;
+            }
+            unindex(id);
+            index(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Caller holds the read lock
+    protected List<BookItem> toItems(int[] ids) {
+        List<BookItem> results = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            results.add(items[id]);
+        }
+        return results;
+    }
+
+    private void index(BookItem item) {
+        int id = item.getCatalogId();
+        if (id >= items.length) {
+            int capacity = Math.max(id + 1, items.length * 2);
+            items = Arrays.copyOf(items, capacity);
+            indexed = Arrays.copyOf(indexed, capacity);
+        }
+        String[] values = new String[FIELDS.length];
+        for (BookField field : FIELDS) {
+            values[field.ordinal()] = field.valueOf(item.getBook());
+        }
+        // Set first, so subclasses can look at the item while indexing it
+        items[id] = item;
+        indexed[id] = values;
+        addDocument(id, values);
+        live++;
+    }
+
+    private void unindex(int id) {
+        if (id < 0 || id >= items.length || items[id] == null) {
+            return;
+        }
+        removeDocument(id, indexed[id]);
+        items[id] = null;
+        indexed[id] = null;
+        live--;
+    }
+
+    private boolean isCurrent(int id, BookItem item) {
+        return id >= 0 && id < items.length && items[id] == item && sameText(indexed[id], item.getBook());
+    }
+
+    private static boolean sameText(String[] values, Book book) {
+        if (values == null) {
+            return false;
+        }
+        for (BookField field : FIELDS) {
+            if (!Objects.equals(values[field.ordinal()], field.valueOf(book))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package libraryManagement4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Trigram index over lowercased title/author/category.
+// Keeps the exact contains-semantics of the scan strategies ("code" matches
+// "Clean Code"), but only verifies items that hold every trigram of the query
+// instead of lowercasing and scanning the whole catalog.
+class TrigramIndex extends TextIndex {
+    private final List<Map<Long, PostingList>> postings = new ArrayList<>();
+    // Lowercased field values by catalog id, used to verify candidates
+    private String[][] lowered = new String[16][];
+
+    public TrigramIndex() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            postings.add(new HashMap<>());
+        }
+    }
+
+    // Items whose field contains query (case-insensitive), in catalog order
+    public List<BookItem> search(BookField field, String query) {
+        return search(field, query, 0, Integer.MAX_VALUE);
+    }
+
+    // The first max of those with catalog id >= fromId
+    public List<BookItem> search(BookField field, String query, int fromId, int max) {
+        String needle = query.toLowerCase();
+        lock.readLock().lock();
+        try {
+            return toItems(match(field.ordinal(), needle, Math.max(fromId, 0), max));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] match(int field, String needle, int fromId, int max) {
+        // Trigrams can match out of order ("abcab" vs "cabc"), so survivors are checked
+        IntPredicate contains = id -> {
+            String[] values = lowered[id];
+            return values != null && values[field] != null && values[field].contains(needle);
+        };
+        if (needle.length() < 3) {
+            // Too short to filter by trigrams; still no catalog copy or re-lowercasing
+            int[] ids = new int[Math.min(max, Math.max(lowered.length - fromId, 0))];
+            int n = 0;
+            for (int id = fromId; id < lowered.length && n < ids.length; id++) {
+                if (contains.test(id)) {
+                    ids[n++] = id;
+                }
+            }
+            return Arrays.copyOf(ids, n);
+        }
+        long[] grams = trigrams(needle);
+        PostingList[] lists = new PostingList[grams.length];
+        int bound = max;
+        for (int i = 0; i < grams.length; i++) {
+            lists[i] = postings.get(field).get(grams[i]);
+            if (lists[i] == null) {
+                return new int[0];
+            }
+            bound = Math.min(bound, lists[i].size());
+        }
+        int[] ids = new int[bound];
+        return Arrays.copyOf(ids, PostingList.intersect(lists, fromId, contains, ids));
+    }
+
+    @Override
+    protected void addDocument(int id, String[] values) {
+        if (id >= lowered.length) {
+            lowered = Arrays.copyOf(lowered, Math.max(id + 1, lowered.length * 2));
+        }
+        String[] lower = new String[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            if (values[f] == null) {
+                continue;
+            }
+            lower[f] = values[f].toLowerCase();
+            for (long gram : trigrams(lower[f])) {
+                postings.get(f).computeIfAbsent(gram, g -> new PostingList()).add(id);
+            }
+        }
+        lowered[id] = lower;
+    }
+
+    @Override
+    protected void removeDocument(int id, String[] values) {
+        String[] lower = lowered[id];
+        for (int f = 0; f < FIELDS.length; f++) {
+            if (lower[f] == null) {
+                continue;
+            }
+            for (long gram : trigrams(lower[f])) {
+                PostingList list = postings.get(f).get(gram);
+                if (list != null && list.remove(id) && list.size() == 0) {
+                    postings.get(f).remove(gram);
+                }
+            }
+        }
+        lowered[id] = null;
+    }
+
+    // Distinct trigrams, each packed as three 16-bit chars
+    private static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] grams = new long[text.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (n == 0 || grams[n - 1] != grams[i]) {
+                grams[n++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, n);
+    }
+}
+
+// Strategy Pattern: substring search with the same results as the scan strategies
+class SubstringSearchStrategy implements IndexedSearchStrategy {
+    private final TrigramIndex index;
+    private final BookField field;
+
+    public SubstringSearchStrategy(TrigramIndex index, BookField field) {
+        this.index = index;
+        this.field = field;
+    }
+
+    @Override
+    public List<BookItem> search(String query) {
+        return index.search(field, query);
+    }
+
+    @Override
+    public boolean matches(BookItem item, String query) {
+        String value = field.valueOf(item.getBook());
+        return value != null && value.toLowerCase().contains(query.toLowerCase());
+    }
+
+    @Override
+    public SearchPage searchPage(String query, int limit, String pageToken) {
+        return SearchPage.ofCatalogOrder(index.search(field, query, SearchPage.position(pageToken), limit + 1), limit);
+    }
+}
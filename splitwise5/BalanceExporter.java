@@ -0,0 +1,269 @@
+package splitwise;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+enum ExportFormat {
+    CSV, JSON
+}
+
+// ============================================================================
+// STREAMING EXPORT - Balances to CSV / JSON
+// WHY: showBalances() formats every pair with String.format and println,
+//      which is far too slow for large sheets and can't be consumed by code
+// BENEFIT: One reused ByteBuffer, hand-rolled number/text encoding, constant
+//          memory no matter how many pairs the sheet holds
+// ============================================================================
+
+class BalanceExporter implements BalanceVisitor {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // Same threshold the console views use to hide rounding dust
+    private static final double MIN_AMOUNT = 0.01;
+    // Worst case for one encoded char: JSON "\\uXXXX" escape
+    private static final int MAX_CHAR_BYTES = 6;
+
+    private final ExportFormat format;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+
+    private WritableByteChannel channel;
+    private boolean perUser;
+    private long rows;
+    private long bytesWritten;
+
+    public BalanceExporter(ExportFormat format) {
+        this(format, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BalanceExporter(ExportFormat format, int bufferSize) {
+        if (bufferSize < 64) {
+            throw new IllegalArgumentException("Buffer too small: " + bufferSize);
+        }
+        this.format = format;
+        // Heap, not direct: exporters are made per call, and a direct buffer
+        // costs far more to allocate and free than one export saves
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    // Every outstanding debt once, as (from, to, amount) with amount > 0
+    public long exportAll(BalanceSheet sheet, WritableByteChannel out) throws IOException {
+        begin(out, false);
+        try {
+            sheet.forEachBalance(this);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return end();
+    }
+
+    // Every non-zero balance of one user; positive = counterparty owes the user
+    public long exportUser(BalanceSheet sheet, String userId, WritableByteChannel out)
+            throws IOException {
+        begin(out, true);
+        try {
+            sheet.forEachBalance(userId, this);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return end();
+    }
+
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    // VISITOR: Called by BalanceSheet for each stored entry
+    @Override
+    public void visit(String userId, String otherId, double amount) {
+        if (perUser) {
+            if (Math.abs(amount) <= MIN_AMOUNT) {
+                return;
+            }
+            writeRow(userId, otherId, amount);
+        } else {
+            // The sheet stores both directions; keep only the creditor's side
+            if (amount <= MIN_AMOUNT) {
+                return;
+            }
+            writeRow(otherId, userId, amount);
+        }
+    }
+
+    private void begin(WritableByteChannel out, boolean perUser) throws IOException {
+        this.channel = out;
+        this.perUser = perUser;
+        this.rows = 0;
+        this.bytesWritten = 0;
+        buffer.clear();
+        if (format == ExportFormat.CSV) {
+            writeAscii(perUser ? "user,counterparty,amount\n" : "from,to,amount\n");
+        } else {
+            writeAscii("[");
+        }
+    }
+
+    private long end() throws IOException {
+        try {
+            if (format == ExportFormat.JSON) {
+                writeAscii(rows == 0 ? "]\n" : "\n]\n");
+            }
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel = null;
+        }
+        return bytesWritten;
+    }
+
+    private void writeRow(String first, String second, double amount) {
+        if (format == ExportFormat.CSV) {
+            writeCsvField(first);
+            writeByte(',');
+            writeCsvField(second);
+            writeByte(',');
+            writeAmount(amount);
+            writeByte('\n');
+        } else {
+            writeAscii(rows == 0 ? "\n  {\"" : ",\n  {\"");
+            writeAscii(perUser ? "user" : "from");
+            writeAscii("\":");
+            writeJsonString(first);
+            writeAscii(perUser ? ",\"counterparty\":" : ",\"to\":");
+            writeJsonString(second);
+            writeAscii(",\"amount\":");
+            writeAmount(amount);
+            writeByte('}');
+        }
+        rows++;
+    }
+
+    // Fixed two decimals without String.format: round to cents, emit digits
+    private void writeAmount(double amount) {
+        long cents = Math.round(amount * 100.0);
+        ensure(digits.length + 2);
+        if (cents < 0) {
+            buffer.put((byte) '-');
+            cents = -cents;
+        }
+        long whole = cents / 100;
+        int frac = (int) (cents % 100);
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + (whole % 10));
+            whole /= 10;
+        } while (whole != 0);
+        buffer.put(digits, pos, digits.length - pos);
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + frac / 10));
+        buffer.put((byte) ('0' + frac % 10));
+    }
+
+    private void writeCsvField(String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writeUtf8(value);
+            return;
+        }
+        writeByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writeByte('"');
+            }
+            i = writeChar(value, i);
+        }
+        writeByte('"');
+    }
+
+    private void writeJsonString(String value) {
+        writeByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            } else if (c < 0x20) {
+                ensure(MAX_CHAR_BYTES);
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(hex(c >> 4)).put(hex(c));
+            } else {
+                i = writeChar(value, i);
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeUtf8(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            i = writeChar(value, i);
+        }
+    }
+
+    // Encodes value[i] (and its low surrogate if paired); returns the last index consumed
+    private int writeChar(String value, int i) {
+        char c = value.charAt(i);
+        ensure(MAX_CHAR_BYTES);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, value.charAt(i + 1));
+            buffer.put((byte) (0xF0 | (cp >> 18)));
+            buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (cp & 0x3F)));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return i;
+    }
+
+    private void writeAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            writeByte(text.charAt(i));
+        }
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private static byte hex(int nibble) {
+        return (byte) "0123456789abcdef".charAt(nibble & 0xF);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                bytesWritten += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+}
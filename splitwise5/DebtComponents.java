@@ -0,0 +1,158 @@
+package splitwise;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// ============================================================================
+// UNION-FIND - Connected components of the debt graph
+// WHY: Real sheets are many disjoint friend clusters; debts can only be
+//      simplified within a cluster, so clusters can be worked on independently
+// BENEFIT: Kept incrementally as transactions arrive (near O(1) per union),
+//          tracks which components changed since the last simplification
+//
+// Members of each set form a circular linked list (next[]), so two sets are
+// merged in O(1) by swapping their roots' next pointers, and a component is
+// enumerated without scanning every user. Edges are never removed: undoing a
+// transaction can leave two clusters joined, which is still correct, just
+// coarser than necessary.
+// ============================================================================
+
+class DebtComponents {
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private String[] ids = new String[16];
+    private int[] parent = new int[16];
+    private int[] next = new int[16];
+    private byte[] rank = new byte[16];
+    private int size;
+    // Roots of components touched since the last drainDirty()
+    private final BitSet dirtyRoots = new BitSet();
+
+    // Records an edge between two users and marks their component changed
+    public synchronized void union(String a, String b) {
+        int ra = find(indexOf(a));
+        int rb = find(indexOf(b));
+        if (ra != rb) {
+            if (rank[ra] < rank[rb]) {
+                int t = ra;
+                ra = rb;
+                rb = t;
+            }
+            parent[rb] = ra;
+            if (rank[ra] == rank[rb]) {
+                rank[ra]++;
+            }
+            int t = next[ra];
+            next[ra] = next[rb];
+            next[rb] = t;
+            dirtyRoots.clear(rb);
+        }
+        dirtyRoots.set(ra);
+    }
+
+    // Member ids of every changed component; clears the changed flags
+    public synchronized List<String[]> drainDirty() {
+        List<String[]> changed = new ArrayList<>(dirtyRoots.cardinality());
+        for (int root = dirtyRoots.nextSetBit(0); root >= 0; root = dirtyRoots.nextSetBit(root + 1)) {
+            changed.add(members(root));
+        }
+        dirtyRoots.clear();
+        return changed;
+    }
+
+    public synchronized int componentCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (parent[i] == i) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized boolean sameComponent(String a, String b) {
+        Integer ia = indexById.get(a);
+        Integer ib = indexById.get(b);
+        return ia != null && ib != null && find(ia) == find(ib);
+    }
+
+    private String[] members(int root) {
+        int count = 1;
+        for (int i = next[root]; i != root; i = next[i]) {
+            count++;
+        }
+        String[] members = new String[count];
+        members[0] = ids[root];
+        int n = 1;
+        for (int i = next[root]; i != root; i = next[i]) {
+            members[n++] = ids[i];
+        }
+        return members;
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]]; // path halving
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private int indexOf(String id) {
+        Integer existing = indexById.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == parent.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            next = Arrays.copyOf(next, capacity);
+            rank = Arrays.copyOf(rank, capacity);
+        }
+        int index = size++;
+        ids[index] = id;
+        parent[index] = index;
+        next[index] = index;
+        indexById.put(id, index);
+        return index;
+    }
+
+    // Runs body(0..n-1) on the pool, splitting the range until single items
+    static void parallelFor(ForkJoinPool pool, int n, IntConsumer body) {
+        if (n == 0) {
+            return;
+        }
+        pool.invoke(new RangeTask(0, n, body));
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        RangeTask(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, body), new RangeTask(mid, to, body));
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package splitwise;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// ============================================================================
+// BINARY CODEC - Compact, versioned encoding for Expense and Split
+// WHY: Expense is a graph of object references (User, List<Split>,
+//      LocalDateTime, enums) with no serialized form for the journal,
+//      replication or caching
+// BENEFIT: Users become varint indices, money becomes fixed-point cents,
+//          timestamps epoch millis, enums ordinals. Encodes straight into a
+//          caller-owned ByteBuffer; the only allocations on decode are the
+//          objects being returned.
+//
+// Layout: [version byte] then tagged fields, terminated by tag 0.
+//   tag = (field number << 3) | wire type, written as a varint
+//   wire types: 0 = varint, 1 = fixed 64-bit, 2 = length-prefixed bytes
+// Readers skip fields they don't know, so new optional fields can be added
+// without a version bump. Bump FORMAT_VERSION only for incompatible changes.
+// ============================================================================
+
+class ExpenseCodec {
+    static final int FORMAT_VERSION = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+
+    // Expense fields - never reuse a number once it has shipped
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_PAID_BY = 2;
+    private static final int FIELD_AMOUNT = 3;
+    private static final int FIELD_SPLIT_TYPE = 4;
+    private static final int FIELD_DESCRIPTION = 5;
+    private static final int FIELD_CATEGORY = 6;
+    private static final int FIELD_CREATED_AT = 7;
+    private static final int FIELD_SPLIT = 8;
+
+    // Split fields (nested inside FIELD_SPLIT)
+    private static final int SPLIT_USER = 1;
+    private static final int SPLIT_AMOUNT = 2;
+    private static final int SPLIT_PERCENT = 3;
+
+    // Amounts are stored in cents, percentages in 1/10000ths of a percent
+    private static final double AMOUNT_SCALE = 100.0;
+    private static final double PERCENT_SCALE = 10_000.0;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private static final SplitType[] SPLIT_TYPES = SplitType.values();
+    private static final ExpenseCategory[] CATEGORIES = ExpenseCategory.values();
+
+    private final UserIndex users;
+    // Reused scratch for decoding strings; grows to the longest seen
+    private char[] chars = new char[64];
+
+    public ExpenseCodec(UserIndex users) {
+        this.users = users;
+    }
+
+    // Writes one record at out.position(); throws BufferOverflowException if it doesn't fit
+    public void encode(Expense expense, ByteBuffer out) {
+        out.put((byte) FORMAT_VERSION);
+        writeString(out, FIELD_ID, expense.getId());
+        writeTag(out, FIELD_PAID_BY, WIRE_VARINT);
+        writeVarint(out, users.indexOf(expense.getPaidBy()));
+        writeTag(out, FIELD_AMOUNT, WIRE_VARINT);
+        writeVarint(out, zigZag(Math.round(expense.getAmount() * AMOUNT_SCALE)));
+        writeTag(out, FIELD_SPLIT_TYPE, WIRE_VARINT);
+        writeVarint(out, expense.getSplitType().ordinal());
+        if (expense.getDescription() != null) {
+            writeString(out, FIELD_DESCRIPTION, expense.getDescription());
+        }
+        if (expense.getCategory() != null) {
+            writeTag(out, FIELD_CATEGORY, WIRE_VARINT);
+            writeVarint(out, expense.getCategory().ordinal());
+        }
+        writeTag(out, FIELD_CREATED_AT, WIRE_VARINT);
+        writeVarint(out, zigZag(toEpochMillis(expense.getCreatedAt())));
+
+        for (Split split : expense.getSplits()) {
+            int userIdx = users.indexOf(split.getUser());
+            long value = splitValue(expense.getSplitType(), split);
+            writeTag(out, FIELD_SPLIT, WIRE_BYTES);
+            writeVarint(out, splitBodySize(expense.getSplitType(), userIdx, value));
+            writeTag(out, SPLIT_USER, WIRE_VARINT);
+            writeVarint(out, userIdx);
+            if (expense.getSplitType() != SplitType.EQUAL) {
+                writeTag(out, splitValueField(expense.getSplitType()), WIRE_VARINT);
+                writeVarint(out, zigZag(value));
+            }
+        }
+        writeVarint(out, 0);
+    }
+
+    // Reads one record from in.position() and leaves the buffer just past it
+    public Expense decode(ByteBuffer in) {
+        int version = in.get() & 0xFF;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported expense format version: " + version);
+        }
+        String id = null;
+        User paidBy = null;
+        long amountCents = 0;
+        SplitType type = null;
+        String description = null;
+        ExpenseCategory category = null;
+        long createdAtMillis = 0;
+        List<Split> splits = new ArrayList<>();
+
+        while (true) {
+            int tag = (int) readVarint(in);
+            if (tag == 0) {
+                break;
+            }
+            switch (tag >>> 3) {
+                case FIELD_ID:
+                    id = readString(in);
+                    break;
+                case FIELD_PAID_BY:
+                    paidBy = users.userAt((int) readVarint(in));
+                    break;
+                case FIELD_AMOUNT:
+                    amountCents = unZigZag(readVarint(in));
+                    break;
+                case FIELD_SPLIT_TYPE:
+                    type = SPLIT_TYPES[(int) readVarint(in)];
+                    break;
+                case FIELD_DESCRIPTION:
+                    description = readString(in);
+                    break;
+                case FIELD_CATEGORY:
+                    category = CATEGORIES[(int) readVarint(in)];
+                    break;
+                case FIELD_CREATED_AT:
+                    createdAtMillis = unZigZag(readVarint(in));
+                    break;
+                case FIELD_SPLIT:
+                    if (type == null) {
+                        throw new IllegalArgumentException("Split before split type in record " + id);
+                    }
+                    splits.add(readSplit(in, type));
+                    break;
+                default:
+                    skip(in, tag & 7);
+            }
+        }
+        if (id == null || paidBy == null || type == null) {
+            throw new IllegalArgumentException("Corrupt expense record: required field missing");
+        }
+
+        double amount = amountCents / AMOUNT_SCALE;
+        // Same arithmetic as ExpenseFactory, so derived amounts round-trip exactly
+        for (Split s : splits) {
+            if (type == SplitType.EQUAL) {
+                s.setAmount(amount / splits.size());
+            } else if (type == SplitType.PERCENT) {
+                s.setAmount((((PercentSplit) s).getPercent() * amount) / 100.0);
+            }
+        }
+        return new Expense(id, paidBy, amount, splits, type, description, category,
+                fromEpochMillis(createdAtMillis));
+    }
+
+    private Split readSplit(ByteBuffer in, SplitType type) {
+        int end = (int) readVarint(in) + in.position();
+        User user = null;
+        long value = 0;
+        while (in.position() < end) {
+            int tag = (int) readVarint(in);
+            switch (tag >>> 3) {
+                case SPLIT_USER:
+                    user = users.userAt((int) readVarint(in));
+                    break;
+                case SPLIT_AMOUNT:
+                case SPLIT_PERCENT:
+                    value = unZigZag(readVarint(in));
+                    break;
+                default:
+                    skip(in, tag & 7);
+            }
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("Corrupt split: user missing");
+        }
+        switch (type) {
+            case EXACT:
+                return new ExactSplit(user, value / AMOUNT_SCALE);
+            case PERCENT:
+                return new PercentSplit(user, value / PERCENT_SCALE);
+            default:
+                return new EqualSplit(user);
+        }
+    }
+
+    // EQUAL splits carry no value: the decoder re-derives them from the total
+    private static long splitValue(SplitType type, Split split) {
+        switch (type) {
+            case EXACT:
+                return Math.round(split.getAmount() * AMOUNT_SCALE);
+            case PERCENT:
+                return Math.round(((PercentSplit) split).getPercent() * PERCENT_SCALE);
+            default:
+                return 0;
+        }
+    }
+
+    private static int splitValueField(SplitType type) {
+        return type == SplitType.PERCENT ? SPLIT_PERCENT : SPLIT_AMOUNT;
+    }
+
+    private static int splitBodySize(SplitType type, int userIdx, long value) {
+        int size = 1 + varintSize(userIdx);
+        if (type != SplitType.EQUAL) {
+            size += 1 + varintSize(zigZag(value));
+        }
+        return size;
+    }
+
+    // ---- primitives ---------------------------------------------------------
+
+    private static void writeTag(ByteBuffer out, int field, int wireType) {
+        writeVarint(out, ((long) field << 3) | wireType);
+    }
+
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void skip(ByteBuffer in, int wireType) {
+        switch (wireType) {
+            case WIRE_VARINT:
+                readVarint(in);
+                break;
+            case WIRE_FIXED64:
+                in.position(in.position() + 8);
+                break;
+            case WIRE_BYTES:
+                int length = (int) readVarint(in);
+                if (length > in.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                in.position(in.position() + length);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown wire type: " + wireType);
+        }
+    }
+
+    // UTF-8 straight from the String's chars; no intermediate byte[]
+    private static void writeString(ByteBuffer out, int field, String value) {
+        writeTag(out, field, WIRE_BYTES);
+        writeVarint(out, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        int end = in.position() + length;
+        int n = 0;
+        while (in.position() < end) {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[n++] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+            } else if (b < 0xF0) {
+                chars[n++] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+            } else {
+                int cp = ((b & 0x07) << 18) | ((in.get() & 0x3F) << 12)
+                        | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F);
+                chars[n++] = Character.highSurrogate(cp);
+                chars[n++] = Character.lowSurrogate(cp);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    // Wall-clock time as millis since 1970-01-01T00:00 with no zone applied,
+    // matching how Expense stores a zone-less LocalDateTime
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.toLocalDate().toEpochDay() * MILLIS_PER_DAY
+                + time.toLocalTime().toNanoOfDay() / 1_000_000L;
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        long day = Math.floorDiv(millis, MILLIS_PER_DAY);
+        long millisOfDay = Math.floorMod(millis, MILLIS_PER_DAY);
+        return LocalDateTime.of(LocalDate.ofEpochDay(day), LocalTime.ofNanoOfDay(millisOfDay * 1_000_000L));
+    }
+}
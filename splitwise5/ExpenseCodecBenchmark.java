@@ -0,0 +1,256 @@
+package splitwise;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// ============================================================================
+// BENCHMARK - ExpenseCodec vs Java serialization
+// Each expense is encoded as a standalone record, the way a journal entry or
+// cache value would be. Reports average size and ns per encode/decode.
+// The domain classes are not Serializable, so the Java serialization baseline
+// copies each expense into a serializable mirror and back, inside the timing.
+//
+// Usage: java splitwise.ExpenseCodecBenchmark [expenses] [rounds]
+// ============================================================================
+
+public class ExpenseCodecBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        UserIndex index = new UserIndex();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            User user = new User("BU" + i, "Bench User " + i, "b" + i + "@bench.test", "0");
+            users.add(user);
+            index.register(user);
+        }
+        List<Expense> expenses = generate(users, count, new Random(7));
+        ExpenseCodec codec = new ExpenseCodec(index);
+
+        verifyRoundTrip(codec, expenses);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long codecBytes = 0;
+        for (Expense e : expenses) {
+            buffer.clear();
+            codec.encode(e, buffer);
+            codecBytes += buffer.position();
+        }
+        long javaBytes = 0;
+        for (Expense e : expenses) {
+            javaBytes += javaSerialize(e).length;
+        }
+
+        double codecEncode = 0;
+        double codecDecode = 0;
+        double javaEncode = 0;
+        double javaDecode = 0;
+        // First round is JIT warm-up and not reported
+        for (int round = 0; round <= rounds; round++) {
+            long t0 = System.nanoTime();
+            for (Expense e : expenses) {
+                buffer.clear();
+                codec.encode(e, buffer);
+            }
+            long t1 = System.nanoTime();
+            for (Expense e : expenses) {
+                buffer.clear();
+                codec.encode(e, buffer);
+                buffer.flip();
+                codec.decode(buffer);
+            }
+            long t2 = System.nanoTime();
+            byte[][] serialized = new byte[expenses.size()][];
+            for (int i = 0; i < expenses.size(); i++) {
+                serialized[i] = javaSerialize(expenses.get(i));
+            }
+            long t3 = System.nanoTime();
+            for (byte[] bytes : serialized) {
+                javaDeserialize(bytes);
+            }
+            long t4 = System.nanoTime();
+            if (round > 0) {
+                codecEncode += (t1 - t0);
+                // Decode loop re-encodes each record; subtract the encode cost
+                codecDecode += (t2 - t1) - (t1 - t0);
+                javaEncode += (t3 - t2);
+                javaDecode += (t4 - t3);
+            }
+        }
+        double ops = (double) count * rounds;
+
+        System.out.println("=".repeat(60));
+        System.out.println("📦 EXPENSE CODEC BENCHMARK (" + count + " expenses x " + rounds + " rounds)");
+        System.out.println("=".repeat(60));
+        System.out.printf("%-20s %12s %14s %14s%n", "", "bytes/exp", "encode ns/op", "decode ns/op");
+        System.out.printf("%-20s %12.1f %14.0f %14.0f%n", "ExpenseCodec",
+                codecBytes / (double) count, codecEncode / ops, codecDecode / ops);
+        System.out.printf("%-20s %12.1f %14.0f %14.0f%n", "Java serialization",
+                javaBytes / (double) count, javaEncode / ops, javaDecode / ops);
+        System.out.printf("Size ratio: %.1fx smaller%n", javaBytes / (double) codecBytes);
+    }
+
+    private static List<Expense> generate(List<User> users, int count, Random random) {
+        SplitType[] types = SplitType.values();
+        ExpenseCategory[] categories = ExpenseCategory.values();
+        List<Expense> expenses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = 2 + random.nextInt(6);
+            int first = random.nextInt(users.size() - size);
+            SplitType type = types[random.nextInt(types.length)];
+            long cents = 100 + random.nextInt(1_000_000);
+            List<Split> splits = new ArrayList<>();
+            long centsLeft = cents;
+            int percentLeft = 100;
+            for (int m = 0; m < size; m++) {
+                User user = users.get(first + m);
+                boolean last = m == size - 1;
+                if (type == SplitType.EXACT) {
+                    long share = last ? centsLeft : centsLeft / (size - m);
+                    centsLeft -= share;
+                    splits.add(new ExactSplit(user, share / 100.0));
+                } else if (type == SplitType.PERCENT) {
+                    int pct = last ? percentLeft : percentLeft / (size - m);
+                    percentLeft -= pct;
+                    splits.add(new PercentSplit(user, pct));
+                } else {
+                    splits.add(new EqualSplit(user));
+                }
+            }
+            expenses.add(ExpenseFactory.createExpense(type, users.get(first), cents / 100.0,
+                    splits, "Bench expense " + i, categories[random.nextInt(categories.length)]));
+        }
+        return expenses;
+    }
+
+    private static void verifyRoundTrip(ExpenseCodec codec, List<Expense> expenses) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (Expense e : expenses) {
+            buffer.clear();
+            codec.encode(e, buffer);
+            buffer.flip();
+            Expense d = codec.decode(buffer);
+            boolean same = d.getId().equals(e.getId())
+                    && d.getPaidBy() == e.getPaidBy()
+                    && d.getAmount() == e.getAmount()
+                    && d.getSplitType() == e.getSplitType()
+                    && d.getCategory() == e.getCategory()
+                    && d.getDescription().equals(e.getDescription())
+                    && d.getCreatedAt().equals(e.getCreatedAt().truncatedTo(ChronoUnit.MILLIS))
+                    && d.getSplits().size() == e.getSplits().size();
+            for (int i = 0; same && i < e.getSplits().size(); i++) {
+                same = d.getSplits().get(i).getUser() == e.getSplits().get(i).getUser()
+                        && d.getSplits().get(i).getAmount() == e.getSplits().get(i).getAmount();
+            }
+            if (!same || buffer.hasRemaining()) {
+                throw new IllegalStateException("Round trip mismatch for " + e.getId());
+            }
+        }
+    }
+
+    private static byte[] javaSerialize(Expense expense) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new SerialExpense(expense));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Expense javaDeserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return ((SerialExpense) in.readObject()).toExpense();
+        }
+    }
+
+    // Field-for-field copies of the domain classes, for the baseline only
+    private static final class SerialUser implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final String name;
+        private final String email;
+
+        SerialUser(User user) {
+            this.id = user.getId();
+            this.name = user.getName();
+            this.email = user.getEmail();
+        }
+
+        User toUser() {
+            return new User(id, name, email, null);
+        }
+    }
+
+    private static final class SerialSplit implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final SerialUser user;
+        private final double amount;
+        private final double percent;
+
+        SerialSplit(Split split) {
+            this.user = new SerialUser(split.getUser());
+            this.amount = split.getAmount();
+            this.percent = split instanceof PercentSplit ? ((PercentSplit) split).getPercent() : 0;
+        }
+
+        Split toSplit(SplitType type) {
+            Split split;
+            if (type == SplitType.EXACT) {
+                split = new ExactSplit(user.toUser(), amount);
+            } else if (type == SplitType.PERCENT) {
+                split = new PercentSplit(user.toUser(), percent);
+            } else {
+                split = new EqualSplit(user.toUser());
+            }
+            split.setAmount(amount);
+            return split;
+        }
+    }
+
+    private static final class SerialExpense implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final SerialUser paidBy;
+        private final double amount;
+        private final ArrayList<SerialSplit> splits;
+        private final SplitType splitType;
+        private final String description;
+        private final ExpenseCategory category;
+        private final LocalDateTime createdAt;
+
+        SerialExpense(Expense expense) {
+            this.id = expense.getId();
+            this.paidBy = new SerialUser(expense.getPaidBy());
+            this.amount = expense.getAmount();
+            this.splits = new ArrayList<>(expense.getSplits().size());
+            for (Split split : expense.getSplits()) {
+                splits.add(new SerialSplit(split));
+            }
+            this.splitType = expense.getSplitType();
+            this.description = expense.getDescription();
+            this.category = expense.getCategory();
+            this.createdAt = expense.getCreatedAt();
+        }
+
+        Expense toExpense() {
+            List<Split> rebuilt = new ArrayList<>(splits.size());
+            for (SerialSplit split : splits) {
+                rebuilt.add(split.toSplit(splitType));
+            }
+            return new Expense(id, paidBy.toUser(), amount, rebuilt, splitType, description, category, createdAt);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package splitwise;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+// ============================================================================
+// IDEMPOTENCY - Bounded, expiring dedup cache (FIFO eviction plus TTL)
+// WHY: Mobile clients retry on timeouts; without a dedup key every retry
+//      builds and applies the expense again and double-counts balances
+// BENEFIT: O(1) lookups, hard cap on entries, keys forgotten after a TTL.
+//          Every live key counts against the full capacity: a key is
+//          remembered until its TTL passes or maxEntries newer keys arrive,
+//          whether or not it has been retried yet. Retries do not refresh
+//          a key: this is not an LRU, and recency buys no protection.
+// ============================================================================
+
+class IdempotencyCache<V> {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    // Insertion-ordered with one TTL for all, so the eldest entry is both the
+    // oldest submission and the first to expire (FIFO)
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static final class Entry<V> {
+        final V value;
+        final long submittedAt;
+
+        Entry(V value, long submittedAt) {
+            this.value = value;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    public IdempotencyCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    IdempotencyCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+    }
+
+    // Returns the cached value, or null if the key is unknown or expired
+    public synchronized V get(String key) {
+        long now = clock.getAsLong();
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (expired(entry, now)) {
+            entries.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(String key, V value) {
+        long now = clock.getAsLong();
+        // Re-inserted, so a refreshed key moves to the young end
+        entries.remove(key);
+        entries.put(key, new Entry<>(value, now));
+        trim(now);
+    }
+
+    // A cache with new limits holding this one's live keys, oldest first, so
+    // retries across a reconfiguration are still recognized. Keys keep their
+    // submission time; the new TTL and capacity apply to them at once.
+    public synchronized IdempotencyCache<V> reconfigured(int maxEntries, Duration ttl) {
+        IdempotencyCache<V> next = new IdempotencyCache<>(maxEntries, ttl, clock);
+        next.entries.putAll(entries);
+        next.trim(clock.getAsLong());
+        next.hits = hits;
+        next.misses = misses;
+        next.evictions += evictions;
+        return next;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized String getStats() {
+        return String.format("entries=%d hits=%d misses=%d evictions=%d",
+                size(), hits, misses, evictions);
+    }
+
+    private void trim(long now) {
+        // Expired keys drop out first, then the oldest live ones over capacity
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> eldest = it.next();
+            if (!expired(eldest, now) && entries.size() <= maxEntries) {
+                break;
+            }
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private boolean expired(Entry<V> entry, long now) {
+        return now - entry.submittedAt >= ttlNanos;
+    }
+}
@@ -0,0 +1,595 @@
+package splitwise;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// ============================================================================
+// MEMORY-MAPPED BALANCE SHEET - Off-heap, persistent backend
+// WHY: For the largest tenants the nested HashMaps don't fit comfortably in
+//      heap and have to be rebuilt from scratch on every start
+// BENEFIT: Pair balances live in a memory-mapped file: the dataset can exceed
+//          the heap, reopening is instant, and the GC never sees the pairs
+//
+// Data file: a 4 KiB header followed by an open-addressing (linear probing)
+// hash table of 16-byte slots: [key: (lo+1) << 32 | (hi+1)][value: cents].
+// Each unordered pair is stored once, value = what hi owes lo, so both views
+// of the pair are always consistent. Keys are claimed and values updated with
+// CAS / getAndAdd directly on the mapping, so concurrent writers need no lock;
+// the read/write lock only fences the rare resize.
+//
+// User ids are dictionary-encoded to dense ints; the dictionary is an
+// append-only side file (<file>.users) written before any slot refers to it.
+// Pairs are never removed (settling zeroes them), so each user's partners are
+// an append-only heap list: one user's balances are looked up pair by pair
+// instead of scanning the whole table.
+//
+// Amounts are kept in whole cents (fixed point), so sub-cent fractions of an
+// EQUAL split are rounded per transaction, identically on add and undo.
+// ============================================================================
+
+class MappedBalanceSheet extends BalanceSheet implements Closeable {
+    private static final long MAGIC = 0x5350_4C54_4241_4C31L; // "SPLTBAL1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_CAPACITY_BITS = 12;
+    private static final int OFFSET_SIZE = 16;
+
+    private static final int SLOT_BYTES = 16;
+    // One mapping can't exceed 2 GiB, so the table is mapped in 1 GiB chunks
+    private static final int CHUNK_SLOT_BITS = 26;
+    private static final long CHUNK_SLOT_MASK = (1L << CHUNK_SLOT_BITS) - 1;
+    private static final int MIN_CAPACITY_BITS = 10;
+    private static final double MAX_LOAD = 0.7;
+    private static final long EMPTY = 0L;
+    // Set on a slot returned by find when this call claimed it
+    private static final long CLAIMED = 1L << 62;
+    private static final double CENTS = 100.0;
+    private static final int NET_CHUNK_BITS = 12;
+    private static final int NET_CHUNK_MASK = (1 << NET_CHUNK_BITS) - 1;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final Path resizePath;
+    private final Path usersPath;
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private final List<String> idsByIndex = new ArrayList<>();
+    // Partner indexes of each user, indexed like idsByIndex
+    private final List<Partners> partnersByIndex = new ArrayList<>();
+    private final FileChannel usersOut;
+
+    private volatile Table table;
+    // Per-user net cents (creditor +, debtor -), indexed like idsByIndex
+    private volatile AtomicLongArray[] nets = new AtomicLongArray[0];
+
+    public MappedBalanceSheet(Path path, long expectedPairs) throws IOException {
+        this.path = path;
+        this.resizePath = path.resolveSibling(path.getFileName() + ".resize");
+        this.usersPath = path.resolveSibling(path.getFileName() + ".users");
+        // A leftover resize file means we crashed mid-resize; the original is intact
+        Files.deleteIfExists(resizePath);
+        this.usersOut = loadUsers();
+        this.table = Table.open(path, capacityBitsFor(expectedPairs));
+        rebuildDerivedState();
+    }
+
+    // Nets and components are heap-side summaries; one sequential pass over
+    // the mapping restores them (every component starts out as changed)
+    private void rebuildDerivedState() {
+        Table t = table;
+        for (long slot = 0; slot <= t.mask; slot++) {
+            long key = t.key(slot);
+            if (key != EMPTY) {
+                int lo = (int) (key >>> 32) - 1;
+                int hi = (int) key - 1;
+                long cents = t.value(slot);
+                addNet(lo, cents);
+                addNet(hi, -cents);
+                addPartners(lo, hi);
+                components.union(idAt(lo), idAt(hi));
+            }
+        }
+    }
+
+    // Chunks are never copied once published, so concurrent adds can't be lost
+    private void ensureNetCapacity(int index) {
+        int chunk = index >>> NET_CHUNK_BITS;
+        AtomicLongArray[] current = nets;
+        if (chunk < current.length) {
+            return;
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(current, chunk + 1);
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(1 << NET_CHUNK_BITS);
+        }
+        nets = grown;
+    }
+
+    private void addNet(int index, long cents) {
+        nets[index >>> NET_CHUNK_BITS].addAndGet(index & NET_CHUNK_MASK, cents);
+    }
+
+    private long netCents(int index) {
+        return nets[index >>> NET_CHUNK_BITS].get(index & NET_CHUNK_MASK);
+    }
+
+    // ---- BalanceSheet backend ----------------------------------------------
+
+    @Override
+    public void addTransaction(String paidBy, String owedBy, double amount) {
+        components.union(paidBy, owedBy);
+        adjust(paidBy, owedBy, Math.round(amount * CENTS));
+    }
+
+    @Override
+    public void removeTransaction(String paidBy, String owedBy, double amount) {
+        components.union(paidBy, owedBy);
+        adjust(paidBy, owedBy, -Math.round(amount * CENTS));
+    }
+
+    // O(1): per-user nets are kept in heap alongside the table
+    @Override
+    public double getNetBalance(String userId) {
+        Integer index;
+        synchronized (indexById) {
+            index = indexById.get(userId);
+        }
+        return index == null ? 0.0 : netCents(index) / CENTS;
+    }
+
+    @Override
+    protected void settle(String creditor, String debtor, double amount) {
+        adjust(creditor, debtor, Math.round(amount * CENTS));
+    }
+
+    // One pass over the table, split into ranges across the pool, zeroing every
+    // pair whose users belong to a changed component
+    @Override
+    protected void clearComponents(List<String[]> changed, ForkJoinPool pool) {
+        BitSet members = new BitSet();
+        synchronized (indexById) {
+            for (String[] component : changed) {
+                for (String member : component) {
+                    Integer index = indexById.get(member);
+                    if (index != null) {
+                        members.set(index);
+                    }
+                }
+            }
+        }
+        resizeLock.readLock().lock();
+        try {
+            Table t = table;
+            long slots = t.mask + 1;
+            int ranges = (int) Math.min(slots, pool.getParallelism() * 4L);
+            DebtComponents.parallelFor(pool, ranges, r -> {
+                long from = slots * r / ranges;
+                long to = slots * (r + 1) / ranges;
+                for (long slot = from; slot < to; slot++) {
+                    long key = t.key(slot);
+                    // Both users of a pair share a component, so checking lo is enough
+                    if (key != EMPTY && members.get((int) (key >>> 32) - 1)) {
+                        long cents = t.swapValue(slot, 0L);
+                        addNet((int) (key >>> 32) - 1, -cents);
+                        addNet((int) key - 1, cents);
+                    }
+                }
+            });
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    // Each pair is already stored once as a signed net amount, so the pairwise
+    // netting the heap backend performs here is inherent in this layout
+    @Override
+    public void simplifyBalances() {
+    }
+
+    @Override
+    public boolean hasUser(String userId) {
+        synchronized (indexById) {
+            return indexById.containsKey(userId);
+        }
+    }
+
+    @Override
+    public void forEachBalance(BalanceVisitor visitor) {
+        scan(visitor);
+    }
+
+    @Override
+    public void forEachBalance(String userId, BalanceVisitor visitor) {
+        Integer index;
+        synchronized (indexById) {
+            index = indexById.get(userId);
+        }
+        if (index != null) {
+            visitPartners(index, visitor);
+        }
+    }
+
+    public long getPairCount() {
+        return table.size();
+    }
+
+    // Flushes dirty pages to disk; mappings already survive a process crash,
+    // this is for machine crashes / power loss
+    public void force() throws IOException {
+        resizeLock.readLock().lock();
+        try {
+            table.force();
+            usersOut.force(false);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        resizeLock.writeLock().lock();
+        try {
+            table.force();
+            table.channel.close();
+            usersOut.force(false);
+            usersOut.close();
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    // ---- internals ----------------------------------------------------------
+
+    // creditor is owed cents by debtor (negative cents reverse it)
+    private void adjust(String creditor, String debtor, long cents) {
+        int a = indexOf(creditor);
+        int b = indexOf(debtor);
+        if (a == b) {
+            return;
+        }
+        long key = a < b ? pairKey(a, b) : pairKey(b, a);
+        long delta = a < b ? cents : -cents;
+
+        boolean needsResize;
+        resizeLock.readLock().lock();
+        try {
+            Table t = table;
+            long slot = t.find(key, true);
+            if ((slot & CLAIMED) != 0) {
+                slot &= ~CLAIMED;
+                addPartners(a, b);
+            }
+            t.addValue(slot, delta);
+            addNet(a, cents);
+            addNet(b, -cents);
+            needsResize = t.size() > t.maxSize;
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+        // Can't upgrade a read lock; a visitor writing mid-scan defers the resize
+        if (needsResize && resizeLock.getReadHoldCount() == 0) {
+            grow();
+        }
+    }
+
+    private void scan(BalanceVisitor visitor) {
+        resizeLock.readLock().lock();
+        try {
+            Table t = table;
+            for (long slot = 0; slot <= t.mask; slot++) {
+                long key = t.key(slot);
+                if (key == EMPTY) {
+                    continue;
+                }
+                int lo = (int) (key >>> 32) - 1;
+                int hi = (int) key - 1;
+                double amount = t.value(slot) / CENTS;
+                visitor.visit(idAt(lo), idAt(hi), amount);
+                visitor.visit(idAt(hi), idAt(lo), -amount);
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    // O(partners of the user): one table lookup per pair the user is in
+    private void visitPartners(int index, BalanceVisitor visitor) {
+        int[] partners = partners(index).snapshot();
+        String userId = idAt(index);
+        resizeLock.readLock().lock();
+        try {
+            Table t = table;
+            for (int other : partners) {
+                long slot = t.find(index < other ? pairKey(index, other) : pairKey(other, index), false);
+                if (slot < 0) {
+                    continue;
+                }
+                long cents = t.value(slot);
+                visitor.visit(userId, idAt(other), (index < other ? cents : -cents) / CENTS);
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    private void addPartners(int a, int b) {
+        partners(a).add(b);
+        partners(b).add(a);
+    }
+
+    private Partners partners(int index) {
+        synchronized (indexById) {
+            return partnersByIndex.get(index);
+        }
+    }
+
+    private void grow() {
+        resizeLock.writeLock().lock();
+        try {
+            Table old = table;
+            if (old.size() <= old.maxSize) {
+                return;
+            }
+            Files.deleteIfExists(resizePath);
+            Table bigger = Table.open(resizePath, old.bits + 1);
+            for (long slot = 0; slot <= old.mask; slot++) {
+                long key = old.key(slot);
+                if (key != EMPTY) {
+                    bigger.addValue(bigger.find(key, true) & ~CLAIMED, old.value(slot));
+                }
+            }
+            bigger.force();
+            old.channel.close();
+            // The open channel follows the file through the rename
+            Files.move(resizePath, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            table = bigger;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Resize of " + path + " failed", e);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    private int indexOf(String userId) {
+        synchronized (indexById) {
+            Integer index = indexById.get(userId);
+            if (index != null) {
+                return index;
+            }
+            byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(4 + id.length);
+            record.putInt(id.length).put(id).flip();
+            try {
+                while (record.hasRemaining()) {
+                    usersOut.write(record);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot persist user " + userId, e);
+            }
+            int newIndex = idsByIndex.size();
+            ensureNetCapacity(newIndex);
+            idsByIndex.add(userId);
+            partnersByIndex.add(new Partners());
+            indexById.put(userId, newIndex);
+            return newIndex;
+        }
+    }
+
+    private String idAt(int index) {
+        synchronized (indexById) {
+            return idsByIndex.get(index);
+        }
+    }
+
+    private FileChannel loadUsers() throws IOException {
+        long good = 0;
+        if (Files.exists(usersPath)) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(usersPath)))) {
+                while (true) {
+                    int length = in.readInt();
+                    byte[] id = new byte[length];
+                    in.readFully(id);
+                    String userId = new String(id, StandardCharsets.UTF_8);
+                    ensureNetCapacity(idsByIndex.size());
+                    indexById.put(userId, idsByIndex.size());
+                    idsByIndex.add(userId);
+                    partnersByIndex.add(new Partners());
+                    good += 4 + length;
+                }
+            } catch (EOFException endOfLog) {
+                // Normal end, or a record torn by a crash: dropped below
+            }
+        }
+        FileChannel out = FileChannel.open(usersPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        out.truncate(good);
+        out.position(good);
+        return out;
+    }
+
+    private static int capacityBitsFor(long expectedPairs) {
+        long slots = (long) Math.ceil(Math.max(1, expectedPairs) / MAX_LOAD);
+        return Math.max(MIN_CAPACITY_BITS, 64 - Long.numberOfLeadingZeros(slots - 1));
+    }
+
+    private static long pairKey(int lo, int hi) {
+        return ((long) (lo + 1) << 32) | (hi + 1);
+    }
+
+    // Growable list of one user's partner indexes
+    private static final class Partners {
+        private int[] indexes = new int[4];
+        private int count;
+
+        synchronized void add(int index) {
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            indexes[count++] = index;
+        }
+
+        synchronized int[] snapshot() {
+            return Arrays.copyOf(indexes, count);
+        }
+    }
+
+    // One mapped hash table file
+    private static final class Table {
+        final FileChannel channel;
+        final MappedByteBuffer header;
+        final MappedByteBuffer[] chunks;
+        final int bits;
+        final long mask;
+        final long maxSize;
+
+        private Table(FileChannel channel, MappedByteBuffer header, MappedByteBuffer[] chunks, int bits) {
+            this.channel = channel;
+            this.header = header;
+            this.chunks = chunks;
+            this.bits = bits;
+            this.mask = (1L << bits) - 1;
+            this.maxSize = (long) ((1L << bits) * MAX_LOAD);
+        }
+
+        // Opens an existing table (its capacity wins) or creates one with newBits
+        static Table open(Path path, int newBits) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean fresh = channel.size() == 0;
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            int bits;
+            if (fresh) {
+                bits = newBits;
+                LONGS.set(header, OFFSET_MAGIC, MAGIC);
+                INTS.set(header, OFFSET_VERSION, VERSION);
+                INTS.set(header, OFFSET_CAPACITY_BITS, bits);
+                LONGS.set(header, OFFSET_SIZE, 0L);
+            } else {
+                if ((long) LONGS.get(header, OFFSET_MAGIC) != MAGIC) {
+                    channel.close();
+                    throw new IOException(path + " is not a balance sheet file");
+                }
+                int version = (int) INTS.get(header, OFFSET_VERSION);
+                if (version != VERSION) {
+                    channel.close();
+                    throw new IOException("Unsupported balance sheet version " + version);
+                }
+                bits = (int) INTS.get(header, OFFSET_CAPACITY_BITS);
+            }
+            long slots = 1L << bits;
+            long slotsPerChunk = Math.min(slots, 1L << CHUNK_SLOT_BITS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) (slots / slotsPerChunk)];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_BYTES + i * slotsPerChunk * SLOT_BYTES, slotsPerChunk * SLOT_BYTES);
+            }
+            return new Table(channel, header, chunks, bits);
+        }
+
+        // Returns the slot holding key, claiming an empty one if create (the
+        // slot is then tagged CLAIMED); -1 if absent
+        long find(long key, boolean create) {
+            long slot = mix(key) & mask;
+            for (long probes = 0; probes <= mask; ) {
+                ByteBuffer chunk = chunk(slot);
+                int offset = offset(slot);
+                long existing = (long) LONGS.getVolatile(chunk, offset);
+                if (existing == key) {
+                    return slot;
+                }
+                if (existing == EMPTY) {
+                    if (!create) {
+                        return -1;
+                    }
+                    if (LONGS.compareAndSet(chunk, offset, EMPTY, key)) {
+                        LONGS.getAndAdd(header, OFFSET_SIZE, 1L);
+                        return slot | CLAIMED;
+                    }
+                    // Lost the race for this slot; re-examine it
+                    continue;
+                }
+                slot = (slot + 1) & mask;
+                probes++;
+            }
+            throw new IllegalStateException("Balance table full");
+        }
+
+        long key(long slot) {
+            return (long) LONGS.getVolatile(chunk(slot), offset(slot));
+        }
+
+        long value(long slot) {
+            return (long) LONGS.getVolatile(chunk(slot), offset(slot) + 8);
+        }
+
+        void addValue(long slot, long delta) {
+            LONGS.getAndAdd(chunk(slot), offset(slot) + 8, delta);
+        }
+
+        long swapValue(long slot, long value) {
+            return (long) LONGS.getAndSet(chunk(slot), offset(slot) + 8, value);
+        }
+
+        long size() {
+            return (long) LONGS.getVolatile(header, OFFSET_SIZE);
+        }
+
+        void force() {
+            header.force();
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+
+        private ByteBuffer chunk(long slot) {
+            return chunks[(int) (slot >>> CHUNK_SLOT_BITS)];
+        }
+
+        private static int offset(long slot) {
+            return (int) ((slot & CHUNK_SLOT_MASK) * SLOT_BYTES);
+        }
+
+        // murmur3 finalizer: spreads the packed (lo, hi) key over the table
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb9fe1a85ec53L;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package splitwise;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// ============================================================================
+// SIMPLIFY-THEN-UNDO CHECK - Undone expenses after component simplification
+// WHY: Simplification replaces a component's pairs with new transfers, so the
+//      pair an expense was booked on may be gone when that expense is undone
+// BENEFIT: Every backend must still move both users' nets back; a shadow
+//          ledger of nets is compared after every step. Exits 1 on violation.
+//
+// Usage: java splitwise.SimplifyUndoCheck
+// ============================================================================
+
+public class SimplifyUndoCheck {
+    private static final double TOLERANCE = 0.011;
+
+    private static int violations;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("simplify-undo");
+        try (MappedBalanceSheet mapped = new MappedBalanceSheet(dir.resolve("balances.bal"), 16)) {
+            check("heap", new BalanceSheet());
+            check("mapped", mapped);
+        }
+        System.out.println("Violations: " + violations);
+        if (violations > 0) {
+            System.exit(1);
+        }
+        System.out.println("✅ Undo after simplification restores every net balance");
+    }
+
+    private static void check(String backend, BalanceSheet sheet) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        Map<String, Double> nets = new HashMap<>();
+
+        // A pays 100 for B, B pays 40 for C, simplify, then undo A's expense:
+        // the A-B pair was cleared by the simplification
+        add(sheet, nets, "A", "B", 100);
+        add(sheet, nets, "B", "C", 40);
+        sheet.simplifyChangedComponents(pool);
+        compare(backend + " after simplify", sheet, nets);
+        remove(sheet, nets, "A", "B", 100);
+        compare(backend + " after undo", sheet, nets);
+
+        // Random adds, undos of earlier adds, and simplifications
+        Random random = new Random(11);
+        List<String[]> added = new ArrayList<>();
+        List<Double> amounts = new ArrayList<>();
+        for (int step = 0; step < 2_000; step++) {
+            int op = random.nextInt(10);
+            if (op < 5 || added.isEmpty()) {
+                String paidBy = "R" + random.nextInt(20);
+                String owedBy = "R" + random.nextInt(20);
+                if (paidBy.equals(owedBy)) {
+                    continue;
+                }
+                double amount = random.nextInt(10_000) / 100.0;
+                add(sheet, nets, paidBy, owedBy, amount);
+                added.add(new String[] { paidBy, owedBy });
+                amounts.add(amount);
+            } else if (op < 8) {
+                int i = random.nextInt(added.size());
+                String[] pair = added.remove(i);
+                remove(sheet, nets, pair[0], pair[1], amounts.remove(i));
+            } else {
+                sheet.simplifyChangedComponents(pool);
+            }
+        }
+        compare(backend + " after random undo/simplify", sheet, nets);
+    }
+
+    private static void add(BalanceSheet sheet, Map<String, Double> nets, String paidBy, String owedBy,
+            double amount) {
+        sheet.addTransaction(paidBy, owedBy, amount);
+        nets.merge(paidBy, amount, Double::sum);
+        nets.merge(owedBy, -amount, Double::sum);
+    }
+
+    private static void remove(BalanceSheet sheet, Map<String, Double> nets, String paidBy, String owedBy,
+            double amount) {
+        sheet.removeTransaction(paidBy, owedBy, amount);
+        nets.merge(paidBy, -amount, Double::sum);
+        nets.merge(owedBy, amount, Double::sum);
+    }
+
+    private static void compare(String stage, BalanceSheet sheet, Map<String, Double> nets) {
+        for (Map.Entry<String, Double> entry : nets.entrySet()) {
+            double actual = sheet.getNetBalance(entry.getKey());
+            if (Math.abs(actual - entry.getValue()) > TOLERANCE) {
+                violations++;
+                System.out.println("❌ " + stage + ": " + entry.getKey() + " nets " +
+                        String.format("%.2f", actual) + ", expected " + String.format("%.2f", entry.getValue()));
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package splitwise;
 
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 // ============================================================================
 // DOMAIN MODELS
@@ -33,6 +38,43 @@ class User {
     }
 }
 
+// Dense 0..n-1 numbering of users, used by compact encodings (varint indices)
+class UserIndex {
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private final List<User> usersByIndex = new ArrayList<>();
+
+    public synchronized int register(User user) {
+        Integer existing = indexById.get(user.getId());
+        if (existing != null) {
+            usersByIndex.set(existing, user);
+            return existing;
+        }
+        int index = usersByIndex.size();
+        usersByIndex.add(user);
+        indexById.put(user.getId(), index);
+        return index;
+    }
+
+    public synchronized int indexOf(User user) {
+        Integer index = indexById.get(user.getId());
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown user: " + user.getId());
+        }
+        return index;
+    }
+
+    public synchronized User userAt(int index) {
+        if (index < 0 || index >= usersByIndex.size()) {
+            throw new IllegalArgumentException("Unknown user index: " + index);
+        }
+        return usersByIndex.get(index);
+    }
+
+    public synchronized int size() {
+        return usersByIndex.size();
+    }
+}
+
 // ============================================================================
 // STRATEGY PATTERN - Split Types
 // WHY: Different algorithms for validating and calculating splits
@@ -120,6 +162,14 @@ class Expense {
         this.createdAt = LocalDateTime.now();
     }
 
+    // Used when rehydrating a stored expense with its original timestamp
+    Expense(String id, User paidBy, double amount, List<Split> splits,
+            SplitType splitType, String description, ExpenseCategory category,
+            LocalDateTime createdAt) {
+        this(id, paidBy, amount, splits, splitType, description, category);
+        this.createdAt = createdAt;
+    }
+
     public String getId() {
         return id;
     }
@@ -136,6 +186,10 @@ class Expense {
         return paidBy;
     }
 
+    public SplitType getSplitType() {
+        return splitType;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -462,12 +516,27 @@ class CommandManager {
 
 // ============================================================================
 // Balance Sheet - Tracks who owes whom
+// Default backend keeps everything in heap maps; see MappedBalanceSheet for
+// the file-backed one. Display/report methods only go through
+// forEachBalance/hasUser so every backend shares them.
 // ============================================================================
 
+// Callback for streaming balances: a positive amount means otherId owes userId
+interface BalanceVisitor {
+    void visit(String userId, String otherId, double amount);
+}
+
 class BalanceSheet {
+    // Below half a cent a net position counts as settled
+    private static final double SETTLE_EPSILON = 0.005;
+
     private Map<String, Map<String, Double>> sheet = new HashMap<>();
 
+    // UNION-FIND: Clusters of users connected by debts, kept as transactions arrive
+    protected final DebtComponents components = new DebtComponents();
+
     public void addTransaction(String paidBy, String owedBy, double amount) {
+        components.union(paidBy, owedBy);
         if (!sheet.containsKey(paidBy))
             sheet.put(paidBy, new HashMap<>());
         if (!sheet.containsKey(owedBy))
@@ -480,16 +549,10 @@ class BalanceSheet {
         sheet.get(owedBy).put(paidBy, sheet.get(owedBy).getOrDefault(paidBy, 0.0) - amount);
     }
 
+    // Applied even when the pair is gone: simplification clears rows, and the
+    // undone debt still has to come off both nets
     public void removeTransaction(String paidBy, String owedBy, double amount) {
-        if (sheet.containsKey(paidBy) && sheet.get(paidBy).containsKey(owedBy)) {
-            double current = sheet.get(paidBy).get(owedBy);
-            sheet.get(paidBy).put(owedBy, current - amount);
-        }
-
-        if (sheet.containsKey(owedBy) && sheet.get(owedBy).containsKey(paidBy)) {
-            double current = sheet.get(owedBy).get(paidBy);
-            sheet.get(owedBy).put(paidBy, current + amount);
-        }
+        addTransaction(paidBy, owedBy, -amount);
     }
 
     public void simplifyBalances() {
@@ -515,45 +578,152 @@ class BalanceSheet {
         }
     }
 
-    public void showBalances() {
-        System.out.println("\n💰 All Balances:");
-        boolean hasBalances = false;
-        for (String user : sheet.keySet()) {
-            for (String other : sheet.get(user).keySet()) {
-                double amt = sheet.get(user).get(other);
-                if (amt > 0.01) { // Only show positive balances
-                    System.out.println("  " + other + " owes " + user + ": ₹" +
-                            String.format("%.2f", amt));
-                    hasBalances = true;
+    // Full debt simplification, one connected component at a time: each
+    // component's members are settled from their net positions with at most
+    // (members - 1) transfers. Components are independent, so they run in
+    // parallel on the pool, and only components changed since the last run
+    // are touched. Returns how many components were simplified.
+    public int simplifyChangedComponents(ForkJoinPool pool) {
+        List<String[]> changed = components.drainDirty();
+        double[][] nets = new double[changed.size()][];
+        DebtComponents.parallelFor(pool, changed.size(), i -> {
+            String[] members = changed.get(i);
+            nets[i] = new double[members.length];
+            for (int m = 0; m < members.length; m++) {
+                nets[i][m] = getNetBalance(members[m]);
+            }
+        });
+        clearComponents(changed, pool);
+        DebtComponents.parallelFor(pool, changed.size(),
+                i -> settleComponent(changed.get(i), nets[i]));
+        return changed.size();
+    }
+
+    // Drops every balance inside the given components. All counterparties of
+    // a member are in its component, so whole rows can go; each task only
+    // touches its own component's rows.
+    protected void clearComponents(List<String[]> changed, ForkJoinPool pool) {
+        DebtComponents.parallelFor(pool, changed.size(), i -> {
+            for (String member : changed.get(i)) {
+                Map<String, Double> row = sheet.get(member);
+                if (row != null) {
+                    row.clear();
                 }
             }
+        });
+    }
+
+    // Records that debtor owes creditor amount, without touching components.
+    // Both users already have rows (they're in a component), so the outer map
+    // is never modified here and per-component tasks can run concurrently.
+    protected void settle(String creditor, String debtor, double amount) {
+        sheet.get(creditor).merge(debtor, amount, Double::sum);
+        sheet.get(debtor).merge(creditor, -amount, Double::sum);
+    }
+
+    // Greedy: repeatedly match the largest creditor with the largest debtor
+    private void settleComponent(String[] members, double[] net) {
+        Integer[] order = new Integer[members.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(net[y], net[x]));
+        int creditor = 0;
+        int debtor = order.length - 1;
+        double[] left = net.clone();
+        while (creditor < debtor) {
+            int c = order[creditor];
+            int d = order[debtor];
+            if (left[c] <= SETTLE_EPSILON) {
+                break;
+            }
+            if (-left[d] <= SETTLE_EPSILON) {
+                debtor--;
+                continue;
+            }
+            double amount = Math.min(left[c], -left[d]);
+            settle(members[c], members[d], amount);
+            left[c] -= amount;
+            left[d] += amount;
+            if (left[c] <= SETTLE_EPSILON) {
+                creditor++;
+            }
+            if (-left[d] <= SETTLE_EPSILON) {
+                debtor--;
+            }
         }
-        if (!hasBalances) {
+    }
+
+    public int getComponentCount() {
+        return components.componentCount();
+    }
+
+    public void showBalances() {
+        System.out.println("\n💰 All Balances:");
+        boolean[] hasBalances = { false };
+        forEachBalance((user, other, amt) -> {
+            if (amt > 0.01) { // Only show positive balances
+                System.out.println("  " + other + " owes " + user + ": ₹" +
+                        String.format("%.2f", amt));
+                hasBalances[0] = true;
+            }
+        });
+        if (!hasBalances[0]) {
             System.out.println("  All settled up! 🎉");
         }
     }
 
+    // Net position of a user: positive = others owe them overall
+    public double getNetBalance(String userId) {
+        double[] net = { 0.0 };
+        forEachBalance(userId, (user, other, amt) -> net[0] += amt);
+        return net[0];
+    }
+
+    public boolean hasUser(String userId) {
+        return sheet.containsKey(userId);
+    }
+
+    // VISITOR: Walks every stored entry without copying the sheet
+    // WHY: Exporters and reports can stream millions of pairs in constant memory
+    public void forEachBalance(BalanceVisitor visitor) {
+        for (Map.Entry<String, Map<String, Double>> row : sheet.entrySet()) {
+            for (Map.Entry<String, Double> cell : row.getValue().entrySet()) {
+                visitor.visit(row.getKey(), cell.getKey(), cell.getValue());
+            }
+        }
+    }
+
+    public void forEachBalance(String userId, BalanceVisitor visitor) {
+        Map<String, Double> row = sheet.get(userId);
+        if (row == null) {
+            return;
+        }
+        for (Map.Entry<String, Double> cell : row.entrySet()) {
+            visitor.visit(userId, cell.getKey(), cell.getValue());
+        }
+    }
+
     public void showBalance(String userId) {
         System.out.println("\n💰 Balance for " + userId + ":");
-        if (!sheet.containsKey(userId)) {
+        if (!hasUser(userId)) {
             System.out.println("  No balances");
             return;
         }
 
-        boolean hasBalances = false;
-        for (String other : sheet.get(userId).keySet()) {
-            double amt = sheet.get(userId).get(other);
+        boolean[] hasBalances = { false };
+        forEachBalance(userId, (user, other, amt) -> {
             if (amt > 0.01) {
                 System.out.println("  " + other + " owes you: ₹" +
                         String.format("%.2f", amt));
-                hasBalances = true;
+                hasBalances[0] = true;
             } else if (amt < -0.01) {
                 System.out.println("  You owe " + other + ": ₹" +
                         String.format("%.2f", Math.abs(amt)));
-                hasBalances = true;
+                hasBalances[0] = true;
             }
-        }
-        if (!hasBalances) {
+        });
+        if (!hasBalances[0]) {
             System.out.println("  All settled up! 🎉");
         }
     }
@@ -569,7 +739,11 @@ class SplitwiseManager {
     // SINGLETON PATTERN: Single instance for entire application
     private static SplitwiseManager instance;
 
+    private static final int DEFAULT_IDEMPOTENCY_ENTRIES = 100_000;
+    private static final Duration DEFAULT_IDEMPOTENCY_TTL = Duration.ofHours(24);
+
     private Map<String, User> users = new HashMap<>();
+    private UserIndex userIndex = new UserIndex();
     private BalanceSheet balanceSheet = new BalanceSheet();
 
     // OBSERVER PATTERN: List of observers to notify
@@ -578,6 +752,10 @@ class SplitwiseManager {
     // COMMAND PATTERN: Command manager for undo/redo
     private CommandManager commandManager = new CommandManager();
 
+    // IDEMPOTENCY: Remembers recent submission keys so client retries are no-ops
+    private IdempotencyCache<Expense> submissions =
+            new IdempotencyCache<>(DEFAULT_IDEMPOTENCY_ENTRIES, DEFAULT_IDEMPOTENCY_TTL);
+
     // SINGLETON PATTERN: Private constructor prevents direct instantiation
     private SplitwiseManager() {
         System.out.println("🏦 Splitwise Manager initialized (Singleton)");
@@ -611,6 +789,7 @@ class SplitwiseManager {
 
     public void addUser(User user) {
         users.put(user.getId(), user);
+        userIndex.register(user);
         System.out.println("👤 User added: " + user.getName());
     }
 
@@ -620,6 +799,32 @@ class SplitwiseManager {
         commandManager.executeCommand(command);
     }
 
+    // IDEMPOTENCY: Retried submissions with the same key return the original
+    // expense without building it again or touching the BalanceSheet
+    public synchronized Expense submitExpense(String idempotencyKey, ExpenseBuilder builder) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            throw new IllegalArgumentException("Idempotency key required");
+        }
+        Expense previous = submissions.get(idempotencyKey);
+        if (previous != null) {
+            return previous;
+        }
+        Expense expense = builder.build();
+        addExpenseWithUndo(expense);
+        submissions.put(idempotencyKey, expense);
+        return expense;
+    }
+
+    // Caps how many keys are remembered (the memory ceiling) and for how long.
+    // Live keys carry over, so a retry spanning the change is still deduped.
+    public synchronized void configureIdempotency(int maxEntries, Duration ttl) {
+        submissions = submissions.reconfigured(maxEntries, ttl);
+    }
+
+    public String getIdempotencyStats() {
+        return submissions.getStats();
+    }
+
     // Called by AddExpenseCommand
     public void executeAddExpense(Expense expense) {
         // Update balances
@@ -661,11 +866,23 @@ class SplitwiseManager {
         commandManager.showHistory();
     }
 
+    // Swap the balance backend (e.g. MappedBalanceSheet); existing balances are not copied
+    public void setBalanceSheet(BalanceSheet balanceSheet) {
+        this.balanceSheet = balanceSheet;
+    }
+
     public void simplifyBalances() {
         balanceSheet.simplifyBalances();
         System.out.println("✨ Balances simplified");
     }
 
+    // Parallel mode: settles each changed cluster of friends from net positions
+    public void simplifyByComponents() {
+        int simplified = balanceSheet.simplifyChangedComponents(ForkJoinPool.commonPool());
+        System.out.println("✨ Balances simplified (" + simplified + " changed component(s) of " +
+                balanceSheet.getComponentCount() + ")");
+    }
+
     public void showBalances() {
         balanceSheet.showBalances();
     }
@@ -674,9 +891,27 @@ class SplitwiseManager {
         balanceSheet.showBalance(userId);
     }
 
+    // Streams all balances to a channel (file, socket, stdout) instead of printing
+    public long exportBalances(WritableByteChannel out, ExportFormat format) throws IOException {
+        return new BalanceExporter(format).exportAll(balanceSheet, out);
+    }
+
+    public long exportBalance(String userId, WritableByteChannel out, ExportFormat format)
+            throws IOException {
+        return new BalanceExporter(format).exportUser(balanceSheet, userId, out);
+    }
+
+    public double getNetBalance(String userId) {
+        return balanceSheet.getNetBalance(userId);
+    }
+
     public User getUser(String userId) {
         return users.get(userId);
     }
+
+    public UserIndex getUserIndex() {
+        return userIndex;
+    }
 }
 
 // ============================================================================
@@ -789,6 +1024,41 @@ public class SplitwiseApp {
         manager.redo();
         manager.showBalances();
 
+        System.out.println("\n" + "=".repeat(60));
+        System.out.println("📤 Export Balances (CSV + JSON)");
+        System.out.println("=".repeat(60));
+
+        WritableByteChannel stdout = Channels.newChannel(System.out);
+        try {
+            manager.exportBalances(stdout, ExportFormat.CSV);
+            manager.exportBalance("U1", stdout, ExportFormat.JSON);
+            System.out.println();
+        } catch (IOException e) {
+            System.err.println("Export failed: " + e.getMessage());
+        }
+
+        System.out.println("\n" + "=".repeat(60));
+        System.out.println("🔁 DEMO: Idempotent Retry");
+        System.out.println("=".repeat(60));
+
+        // IDEMPOTENCY: A client retrying after a timeout sends the same key twice
+        List<Split> taxiSplits = new ArrayList<>();
+        taxiSplits.add(new EqualSplit(u1));
+        taxiSplits.add(new EqualSplit(u2));
+        ExpenseBuilder taxi = new ExpenseBuilder()
+                .setType(SplitType.EQUAL)
+                .setPaidBy(u2)
+                .setAmount(200)
+                .setSplits(taxiSplits)
+                .setDescription("Airport Taxi")
+                .setCategory(ExpenseCategory.TRAVEL);
+
+        Expense first = manager.submitExpense("client-42:req-7", taxi);
+        Expense retry = manager.submitExpense("client-42:req-7", taxi);
+        System.out.println("Retry returned original: " + (first == retry) +
+                " (" + manager.getIdempotencyStats() + ")");
+        manager.showBalances();
+
         System.out.println("\n" + "=".repeat(60));
         System.out.println("✨ DEMO: Simplify Balances");
         System.out.println("=".repeat(60));
@@ -0,0 +1,452 @@
+package splitwise;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// ============================================================================
+// SYNTHETIC WORKLOAD - Soak test for SplitwiseManager
+// WHY: Reproduce production-shaped load (hot groups, heavy payers, mixed split
+//      types, undo/redo churn) locally instead of guessing from the demo
+// BENEFIT: Throughput, latency percentiles, heap growth and GC numbers from one
+//          run, plus a shadow ledger proving balances still net to zero
+//
+// Usage: java splitwise.SplitwiseWorkload users=2000 groups=300 rate=20000 seconds=30
+//        (add balanceFile=/tmp/soak.bal to soak the memory-mapped backend)
+// ============================================================================
+
+class WorkloadConfig {
+    int users = 1_000;
+    int groups = 200;
+    int maxGroupSize = 40;
+    double zipfExponent = 1.1;
+    int ratePerSecond = 10_000;
+    int durationSeconds = 10;
+    double undoRatio = 0.05;
+    double redoRatio = 0.03;
+    long seed = 42L;
+    // Optional: run against MappedBalanceSheet backed by this file
+    String balanceFile;
+
+    static WorkloadConfig fromArgs(String[] args) {
+        WorkloadConfig config = new WorkloadConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "users":
+                    config.users = Integer.parseInt(value);
+                    break;
+                case "groups":
+                    config.groups = Integer.parseInt(value);
+                    break;
+                case "maxGroupSize":
+                    config.maxGroupSize = Integer.parseInt(value);
+                    break;
+                case "zipf":
+                    config.zipfExponent = Double.parseDouble(value);
+                    break;
+                case "rate":
+                    config.ratePerSecond = Integer.parseInt(value);
+                    break;
+                case "seconds":
+                    config.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "undo":
+                    config.undoRatio = Double.parseDouble(value);
+                    break;
+                case "redo":
+                    config.redoRatio = Double.parseDouble(value);
+                    break;
+                case "seed":
+                    config.seed = Long.parseLong(value);
+                    break;
+                case "balanceFile":
+                    config.balanceFile = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+        if (config.maxGroupSize < 2 || config.users < config.maxGroupSize) {
+            throw new IllegalArgumentException("Need users >= maxGroupSize >= 2");
+        }
+        return config;
+    }
+}
+
+// Samples ranks 0..n-1 with P(k) proportional to 1 / (k+1)^s
+class ZipfSampler {
+    private final double[] cdf;
+    private final Random random;
+
+    ZipfSampler(int n, double exponent, Random random) {
+        this.cdf = new double[n];
+        this.random = random;
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+    }
+
+    int next() {
+        double u = random.nextDouble();
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
+
+// Log-linear histogram (32 sub-buckets per power of two, ~3% error), fixed size
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_COUNT];
+    private long total;
+    private long max;
+
+    void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts[indexOf(v)]++;
+        total++;
+        max = Math.max(max, v);
+    }
+
+    long percentile(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getCount() {
+        return total;
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((v >>> shift) - SUB_COUNT);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
+
+public class SplitwiseWorkload {
+    private static final SplitType[] SPLIT_TYPES = SplitType.values();
+    private static final ExpenseCategory[] CATEGORIES = ExpenseCategory.values();
+
+    private final WorkloadConfig config;
+    private final Random random;
+    private final SplitwiseManager manager = SplitwiseManager.getInstance();
+    private final List<User> users = new ArrayList<>();
+    private final List<int[]> groups = new ArrayList<>();
+    private final ZipfSampler groupPicker;
+    private final ZipfSampler[] payerPickers;
+
+    // Shadow ledger: mirrors CommandManager's stacks and each user's net position
+    private final Deque<Expense> applied = new ArrayDeque<>();
+    private final Deque<Expense> undone = new ArrayDeque<>();
+    private final double[] expectedNet;
+    private double volume;
+
+    private long adds;
+    private long undos;
+    private long redos;
+
+    SplitwiseWorkload(WorkloadConfig config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+        this.expectedNet = new double[config.users];
+        this.groupPicker = new ZipfSampler(config.groups, config.zipfExponent, random);
+        this.payerPickers = new ZipfSampler[config.maxGroupSize + 1];
+    }
+
+    private void setUp() {
+        for (int i = 0; i < config.users; i++) {
+            User user = new User("LOAD-U" + i, "Load User " + i, "u" + i + "@load.test", "0");
+            users.add(user);
+            manager.addUser(user);
+        }
+        // Group sizes are Zipfian too: most groups are small, a few are huge
+        ZipfSampler sizePicker = new ZipfSampler(config.maxGroupSize - 1, config.zipfExponent, random);
+        for (int g = 0; g < config.groups; g++) {
+            int size = 2 + sizePicker.next();
+            int[] members = new int[size];
+            int start = random.nextInt(config.users);
+            int stride = 1 + random.nextInt(config.users - 1);
+            for (int m = 0; m < size; m++) {
+                members[m] = (int) ((start + (long) m * stride) % config.users);
+            }
+            groups.add(dedupe(members));
+        }
+    }
+
+    private static int[] dedupe(int[] members) {
+        int[] sorted = members.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private void step() {
+        double r = random.nextDouble();
+        if (r < config.undoRatio) {
+            manager.undo();
+            if (!applied.isEmpty()) {
+                Expense e = applied.pop();
+                apply(e, -1);
+                undone.push(e);
+            }
+            undos++;
+        } else if (r < config.undoRatio + config.redoRatio) {
+            manager.redo();
+            if (!undone.isEmpty()) {
+                Expense e = undone.pop();
+                apply(e, 1);
+                applied.push(e);
+            }
+            redos++;
+        } else {
+            Expense e = nextExpense();
+            manager.addExpenseWithUndo(e);
+            apply(e, 1);
+            applied.push(e);
+            undone.clear();
+            adds++;
+        }
+    }
+
+    private Expense nextExpense() {
+        int[] members = groups.get(groupPicker.next());
+        // Payer skew: the first members of a group pay far more often
+        ZipfSampler payerPicker = payerPickers[members.length];
+        if (payerPicker == null) {
+            payerPicker = new ZipfSampler(members.length, config.zipfExponent, random);
+            payerPickers[members.length] = payerPicker;
+        }
+        User payer = users.get(members[payerPicker.next()]);
+        long cents = 100 + random.nextInt(500_000);
+        double amount = cents / 100.0;
+
+        SplitType type = SPLIT_TYPES[random.nextInt(SPLIT_TYPES.length)];
+        if (type == SplitType.PERCENT && members.length > 100) {
+            type = SplitType.EQUAL;
+        }
+        List<Split> splits = new ArrayList<>(members.length);
+        switch (type) {
+            case EQUAL:
+                for (int m : members) {
+                    splits.add(new EqualSplit(users.get(m)));
+                }
+                break;
+            case EXACT:
+                long remaining = cents;
+                for (int i = 0; i < members.length; i++) {
+                    long share = i == members.length - 1 ? remaining
+                            : (long) (remaining * random.nextDouble() / 2);
+                    remaining -= share;
+                    splits.add(new ExactSplit(users.get(members[i]), share / 100.0));
+                }
+                break;
+            case PERCENT:
+                int percentLeft = 100;
+                for (int i = 0; i < members.length; i++) {
+                    int slotsAfter = members.length - 1 - i;
+                    int pct = i == members.length - 1 ? percentLeft
+                            : 1 + random.nextInt(Math.max(1, percentLeft - slotsAfter));
+                    percentLeft -= pct;
+                    splits.add(new PercentSplit(users.get(members[i]), pct));
+                }
+                break;
+        }
+        return new ExpenseBuilder()
+                .setType(type)
+                .setPaidBy(payer)
+                .setAmount(amount)
+                .setSplits(splits)
+                .setDescription("load")
+                .setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)])
+                .build();
+    }
+
+    private void apply(Expense e, int sign) {
+        int payer = indexOf(e.getPaidBy());
+        for (Split s : e.getSplits()) {
+            int debtor = indexOf(s.getUser());
+            if (debtor != payer) {
+                // The mapped backend keeps whole cents per transaction
+                double owed = config.balanceFile != null
+                        ? Math.round(s.getAmount() * 100.0) / 100.0
+                        : s.getAmount();
+                expectedNet[payer] += sign * owed;
+                expectedNet[debtor] -= sign * owed;
+                volume += owed;
+            }
+        }
+    }
+
+    private static int indexOf(User user) {
+        return Integer.parseInt(user.getId().substring("LOAD-U".length()));
+    }
+
+    private boolean verifyNetZero(PrintStream out) {
+        double tolerance = Math.max(0.01, volume * 1e-9);
+        double total = 0;
+        int mismatches = 0;
+        for (int i = 0; i < users.size(); i++) {
+            double actual = manager.getNetBalance(users.get(i).getId());
+            total += actual;
+            if (Math.abs(actual - expectedNet[i]) > tolerance) {
+                if (mismatches++ < 5) {
+                    out.printf("  ❌ %s: sheet %.2f, expected %.2f%n",
+                            users.get(i).getId(), actual, expectedNet[i]);
+                }
+            }
+        }
+        out.printf("  Sum of net balances: %.6f (tolerance %.6f)%n", total, tolerance);
+        out.println("  Per-user mismatches vs shadow ledger: " + mismatches);
+        return mismatches == 0 && Math.abs(total) <= tolerance;
+    }
+
+    public static void main(String[] args) throws IOException {
+        WorkloadConfig config = WorkloadConfig.fromArgs(args);
+        MappedBalanceSheet mapped = null;
+        if (config.balanceFile != null) {
+            Path file = Paths.get(config.balanceFile);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".users"));
+            mapped = new MappedBalanceSheet(file, (long) config.users * 8);
+            SplitwiseManager.getInstance().setBalanceSheet(mapped);
+        }
+        PrintStream console = System.out;
+        // The manager and its commands log every operation; keep the soak quiet
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        SplitwiseWorkload workload = new SplitwiseWorkload(config);
+        workload.setUp();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long gcCountBefore = 0;
+        long gcTimeBefore = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCountBefore += gc.getCollectionCount();
+            gcTimeBefore += gc.getCollectionTime();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.ratePerSecond;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        long ops = 0;
+        long now = start;
+        while (now < deadline) {
+            // Measured from the scheduled start so a stall counts for every op it delays
+            long scheduled = start + ops * intervalNanos;
+            if (now < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            workload.step();
+            now = System.nanoTime();
+            latency.record(now - scheduled);
+            ops++;
+        }
+        long elapsed = now - start;
+
+        long gcCount = -gcCountBefore;
+        long gcTime = -gcTimeBefore;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        System.setOut(console);
+
+        console.println("=".repeat(60));
+        console.println("🔥 SPLITWISE SOAK TEST");
+        console.println("=".repeat(60));
+        console.printf("Users %d, groups %d, target %d ops/s for %ds%n",
+                config.users, config.groups, config.ratePerSecond, config.durationSeconds);
+        console.printf("Ops: %d (add %d, undo %d, redo %d)%n",
+                ops, workload.adds, workload.undos, workload.redos);
+        console.printf("Throughput: %.0f ops/s%n", ops * 1e9 / elapsed);
+        console.printf("Latency µs  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                latency.percentile(50) / 1e3, latency.percentile(90) / 1e3,
+                latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3,
+                latency.getMax() / 1e3);
+        console.printf("Heap: %.1f MB -> %.1f MB (growth %.1f MB)%n",
+                heapBefore / 1048576.0, heapAfter / 1048576.0,
+                (heapAfter - heapBefore) / 1048576.0);
+        console.printf("GC: %d collections, %d ms total pause%n", gcCount, gcTime);
+        console.println("Balance check:");
+        boolean ok = workload.verifyNetZero(console);
+        console.println(ok ? "✅ Balances net to zero" : "❌ Balance drift detected");
+        if (mapped != null) {
+            console.println("Mapped pairs: " + mapped.getPairCount());
+            mapped.close();
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}